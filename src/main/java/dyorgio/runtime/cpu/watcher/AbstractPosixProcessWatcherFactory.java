@@ -21,8 +21,35 @@ package dyorgio.runtime.cpu.watcher;
  */
 public abstract class AbstractPosixProcessWatcherFactory extends AbstractProcessWatcherFactory {
 
+    private static final int SCHED_FIFO = 1;
+    private static final int SCHED_RR = 2;
+    private static final int MCL_CURRENT = 1;
+    private static final int FALLBACK_NICE = -10;
+
     @Override
-    public final int getCurrentPid() {
+    public int getCurrentPid() {
         return PosixProcessWatcher.CLibrary.INSTANCE.getpid();
     }
+
+    @Override
+    public ControlThreadPolicy setCurrentThreadPolicy(ControlThreadPolicy policy, int priority) {
+        if (policy != ControlThreadPolicy.NICE) {
+            try {
+                // pid 0: calling thread
+                if (PosixProcessWatcher.CLibrary.INSTANCE.sched_setscheduler(0, policy == ControlThreadPolicy.FIFO ? SCHED_FIFO : SCHED_RR, new int[]{priority}) == 0) {
+                    return policy;
+                }
+            } catch (UnsatisfiedLinkError e) {
+                // not available (macOS)
+            }
+            priority = FALLBACK_NICE;
+        }
+        // calling thread on Linux, entire process on macOS
+        return PosixProcessWatcher.CLibrary.INSTANCE.setpriority(PosixProcessWatcher.PRIO_PROCESS, 0, priority) == 0 ? ControlThreadPolicy.NICE : null;
+    }
+
+    @Override
+    public boolean lockMemory() {
+        return PosixProcessWatcher.CLibrary.INSTANCE.mlockall(MCL_CURRENT) == 0;
+    }
 }
@@ -15,7 +15,11 @@
  ***************************************************************************** */
 package dyorgio.runtime.cpu.watcher;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import oshi.software.os.OSProcess;
+import oshi.software.os.OSThread;
 
 /**
  *
@@ -25,6 +29,16 @@ public abstract class AbstractProcessWatcher {
 
     protected final int pid;
     protected boolean resumed = true;
+    protected boolean deprioritized = false;
+    private volatile long suspendCount;
+
+    // per thread sampling state, reused between samples
+    private IntLongMap previousThreadTimes = new IntLongMap();
+    private IntLongMap currentThreadTimes = new IntLongMap();
+    private long previousThreadTimestamp = -1;
+    private int[] sampledTids = new int[16];
+    private String[] sampledNames = new String[16];
+    private int sampledCount;
 
     protected AbstractProcessWatcher(final int pid) {
         this.pid = pid;
@@ -41,6 +55,7 @@ public abstract class AbstractProcessWatcher {
     public final void suspend() {
         suspendImpl();
         resumed = false;
+        suspendCount++;
     }
 
     public final void resume() {
@@ -48,9 +63,46 @@ public abstract class AbstractProcessWatcher {
         resumed = true;
     }
 
+    public final synchronized boolean isDeprioritized() {
+        return deprioritized;
+    }
+
+    /**
+     * Lowers process scheduling priority (soft throttling), does nothing if
+     * already lowered (original priorities are kept).<br>
+     * Synchronized, control loop and shutdown hook may race.
+     *
+     * @param mode How to lower priority.
+     * @return false if not supported by platform/permissions.
+     */
+    public final synchronized boolean deprioritize(SoftThrottleMode mode) {
+        if (!deprioritized) {
+            deprioritized = deprioritizeImpl(mode);
+        }
+        return deprioritized;
+    }
+
+    /**
+     * Restores process scheduling priority saved by
+     * {@link #deprioritize(dyorgio.runtime.cpu.watcher.SoftThrottleMode)}.
+     * Stays deprioritized (originals kept to retry) if restore fails.
+     */
+    public final synchronized void restorePriority() {
+        if (deprioritized && restorePriorityImpl()) {
+            deprioritized = false;
+        }
+    }
+
+    /**
+     * @return How many times process was suspended by this watcher.
+     */
+    public final long getSuspendCount() {
+        return suspendCount;
+    }
+
     public CpuTimeSnapshot getCpuTimes() {
         try {
-            OSProcess osProcess = CpuWatcher.OPERATING_SYSTEM.getProcess(this.pid);
+            OSProcess osProcess = Oshi.OPERATING_SYSTEM.getProcess(this.pid);
            // osProcess.getProcessCpuLoadBetweenTicks(osProcess)
             return new CpuTimeSnapshot(osProcess.getUserTime() + osProcess.getKernelTime(), osProcess.getUpTime());
         } catch (Exception ex) {
@@ -58,6 +110,94 @@ public abstract class AbstractProcessWatcher {
         }
     }
 
+    /**
+     * @return Process start time, identifies a process instance (PIDs are
+     * reused).
+     */
+    public long getStartTime() {
+        try {
+            return Oshi.OPERATING_SYSTEM.getProcess(this.pid).getStartTime();
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    public IoSnapshot getIoBytes() {
+        try {
+            OSProcess osProcess = Oshi.OPERATING_SYSTEM.getProcess(this.pid);
+            return new IoSnapshot(osProcess.getBytesRead(), osProcess.getBytesWritten(), osProcess.getUpTime());
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Returns cpu usage of each thread since previous call, sampled on demand
+     * (not by control loop). Usage is relative to one core, like
+     * {@link CpuTimeSnapshot#getCpuUsage(CpuTimeSnapshot)}. First call
+     * returns 0 usage for all threads.
+     *
+     * @return Threads usages.
+     */
+    public synchronized List<ThreadCpuUsage> getThreadCpuUsages() {
+        sampledCount = 0;
+        currentThreadTimes.clear();
+        long timestamp = readThreadCpuTimes();
+
+        double delta = previousThreadTimestamp < 0 ? 0 : timestamp - previousThreadTimestamp;
+        List<ThreadCpuUsage> usages = new ArrayList(sampledCount);
+        int tid;
+        for (int i = 0; i < sampledCount; i++) {
+            tid = sampledTids[i];
+            usages.add(new ThreadCpuUsage(tid, sampledNames[i], delta <= 0 ? 0
+                    : (float) ((currentThreadTimes.get(tid, 0) - previousThreadTimes.get(tid, 0)) / delta) * 100f));
+            sampledNames[i] = null;
+        }
+
+        IntLongMap swap = previousThreadTimes;
+        previousThreadTimes = currentThreadTimes;
+        currentThreadTimes = swap;
+        previousThreadTimestamp = timestamp;
+        return usages;
+    }
+
+    /**
+     * Reads cumulative cpu time of each process thread, calling
+     * {@link #addThreadCpuTime(int, java.lang.String, long)} for each one.
+     *
+     * @return Sample timestamp in milliseconds.
+     */
+    protected long readThreadCpuTimes() {
+        try {
+            OSProcess osProcess = Oshi.OPERATING_SYSTEM.getProcess(this.pid);
+            for (OSThread thread : osProcess.getThreadDetails()) {
+                addThreadCpuTime(thread.getThreadId(), thread.getName(), thread.getUserTime() + thread.getKernelTime());
+            }
+            return osProcess.getUpTime();
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    protected final void addThreadCpuTime(int tid, String name, long cpuTimeMillis) {
+        if (sampledCount == sampledTids.length) {
+            sampledTids = Arrays.copyOf(sampledTids, sampledCount * 2);
+            sampledNames = Arrays.copyOf(sampledNames, sampledCount * 2);
+        }
+        sampledTids[sampledCount] = tid;
+        sampledNames[sampledCount++] = name;
+        currentThreadTimes.put(tid, cpuTimeMillis);
+    }
+
+    protected boolean deprioritizeImpl(SoftThrottleMode mode) {
+        return false;
+    }
+
+    protected boolean restorePriorityImpl() {
+        // Nothing to restore when not supported
+        return true;
+    }
+
     protected abstract void suspendImpl();
 
     protected abstract void resumeImpl();
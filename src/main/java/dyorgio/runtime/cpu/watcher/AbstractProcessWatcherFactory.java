@@ -15,6 +15,7 @@
  ***************************************************************************** */
 package dyorgio.runtime.cpu.watcher;
 
+import dyorgio.runtime.cpu.watcher.platform.LinuxProcessWatcherFactory;
 import dyorgio.runtime.cpu.watcher.platform.PosixProcessWatcherFactory;
 import dyorgio.runtime.cpu.watcher.platform.WinProcessWatcherFactory;
 import java.util.Locale;
@@ -35,7 +36,7 @@ public abstract class AbstractProcessWatcherFactory {
             } else if (OS.contains("win")) {
                 INSTANCE = new WinProcessWatcherFactory();
             } else if (OS.contains("nux")) {
-                INSTANCE = new PosixProcessWatcherFactory(false);
+                INSTANCE = new LinuxProcessWatcherFactory();
             } else {
                 throw new RuntimeException("Unsupported OS:" + OS);
             }
@@ -48,6 +49,31 @@ public abstract class AbstractProcessWatcherFactory {
 
     public abstract int getCurrentPid();
 
+    /**
+     * Changes scheduling policy of current thread.
+     *
+     * @param policy Desired policy.
+     * @param priority Real-time priority or nice value.
+     * @return Applied policy (can be a fallback) or null if not supported.
+     */
+    public ControlThreadPolicy setCurrentThreadPolicy(ControlThreadPolicy policy, int priority) {
+        return null;
+    }
+
+    /**
+     * Locks current process memory in RAM, avoiding page faults on control
+     * loops.
+     *
+     * @return false if not supported/allowed.
+     */
+    public boolean lockMemory() {
+        return false;
+    }
+
+    public int getCpuCount() {
+        return Oshi.SYSTEM_INFO.getHardware().getProcessor().getLogicalProcessorCount();
+    }
+
     public static AbstractProcessWatcherFactory getInstance() {
         return INSTANCE;
     }
@@ -0,0 +1,37 @@
+/** *****************************************************************************
+ * Copyright 2022 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************** */
+package dyorgio.runtime.cpu.watcher;
+
+/**
+ * Scheduling policy of watcher control threads, keeps enforcement latency
+ * bounded when host is saturated.
+ *
+ * @author dyorgio
+ */
+public enum ControlThreadPolicy {
+    /**
+     * SCHED_FIFO real-time policy (priority 1-99).
+     */
+    FIFO,
+    /**
+     * SCHED_RR real-time policy (priority 1-99).
+     */
+    RR,
+    /**
+     * Raised nice value (priority is nice, -20 to 19).
+     */
+    NICE
+}
@@ -29,6 +29,19 @@ public class CpuTimeSnapshot {
         this.timestamp = timestamp;
     }
 
+    CpuTimeSnapshot(double total, double timestamp) {
+        this.total = total;
+        this.timestamp = timestamp;
+    }
+
+    double getTotal() {
+        return total;
+    }
+
+    double getTimestamp() {
+        return timestamp;
+    }
+
     public float getCpuUsage(CpuTimeSnapshot previous) {
         double delta = (timestamp - previous.timestamp);
         return delta == 0 ? 0 : (float) ((total - previous.total) / delta) * 100f;
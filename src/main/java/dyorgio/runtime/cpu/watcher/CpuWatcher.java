@@ -15,9 +15,12 @@
  ***************************************************************************** */
 package dyorgio.runtime.cpu.watcher;
 
-import oshi.SystemInfo;
-import oshi.software.os.OperatingSystem;
-import oshi.util.GlobalConfig;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 
 /**
  * Thread to watch and, optionally, limit another process cpu usage.
@@ -26,12 +29,10 @@ import oshi.util.GlobalConfig;
  */
 public final class CpuWatcher extends Thread {
 
-    static {
-        GlobalConfig.set("oshi.util.memoizer.expiration", 0);
-    }
-    static final SystemInfo SYSTEM_INFO = new SystemInfo();
-    static final OperatingSystem OPERATING_SYSTEM = SYSTEM_INFO.getOperatingSystem();
     private static int CPU_COUNT = -1;
+    private static final long CHECKPOINT_INTERVAL = 1000000000L;
+    // history (ms) kept by checkpointed baselines, also bounds carried credit/debt
+    private static final long CHECKPOINT_WINDOW = 1000L;
 
     private final long pid;
     private final int cpuCount;
@@ -42,10 +43,36 @@ public final class CpuWatcher extends Thread {
 
     private CpuTimeSnapshot previousCpuTimeLocal = null;
 
+    private volatile Float ioLimit;
+    private final ThreadLocal<IoSnapshot> previousIo = new ThreadLocal();
+
+    private IoSnapshot previousIoLocal = null;
+
+    private volatile SoftThrottleMode softThrottleMode;
+    private volatile long softThrottleGrace;
+
+    private volatile ControlThreadPolicy controlThreadPolicy;
+    private volatile int controlThreadPriority;
+    private volatile ControlThreadPolicy appliedControlThreadPolicy;
+    private volatile boolean lockMemory;
+    private volatile boolean memoryLocked;
+
+    private volatile LimiterCheckpoint checkpoint;
+
+    // control loop wakeup lateness (nanos)
+    private volatile long maxWakeupLateness;
+    private volatile long totalWakeupLateness;
+    private volatile long wakeups;
+
     public CpuWatcher(int pid, Float usageLimit) {
         this(null, pid, usageLimit);
     }
 
+    public CpuWatcher(int pid, Float usageLimit, Float ioLimit) {
+        this(null, pid, usageLimit);
+        setIoLimit(ioLimit);
+    }
+
     public CpuWatcher(ThreadGroup group, int pid, Float usageLimit) {
         super(group, null, "CpuWatcher[PID:" + pid + "]");
         AbstractProcessWatcherFactory factory = AbstractProcessWatcherFactory.getInstance();
@@ -85,6 +112,157 @@ public final class CpuWatcher extends Thread {
         return usageLimit;
     }
 
+    /**
+     * Sets disk I/O limit, suspends process when read + written bytes per
+     * second exceeds it. Can be combined with cpu usage limit, process is
+     * suspended when any of them is exceeded.
+     *
+     * @param ioLimit Bytes per second limit, null to disable.
+     */
+    public void setIoLimit(Float ioLimit) {
+        if (ioLimit != null && ioLimit < 0) {
+            throw new RuntimeException("Invalid I/O limit (" + ioLimit + "), cannot be negative.");
+        }
+        this.ioLimit = ioLimit;
+        previousIoLocal = null;
+    }
+
+    public Float getIoLimit() {
+        return ioLimit;
+    }
+
+    /**
+     * Enables tiered soft throttling: when a limit is exceeded process
+     * priority is lowered first, suspending it only if usage still exceeds
+     * limit after grace window. Original priority is restored once usage
+     * comes back under limit.<br>
+     * Restoring a higher priority can require privileges (CAP_SYS_NICE).
+     *
+     * @param mode How to lower priority, null to disable (suspend only).
+     * @param graceMillis How long to wait for lowered priority effect before
+     * suspending process.
+     */
+    public void setSoftThrottle(SoftThrottleMode mode, long graceMillis) {
+        if (graceMillis < 0) {
+            throw new RuntimeException("Invalid soft throttle grace (" + graceMillis + "), cannot be negative.");
+        }
+        this.softThrottleGrace = graceMillis;
+        this.softThrottleMode = mode;
+    }
+
+    public SoftThrottleMode getSoftThrottleMode() {
+        return softThrottleMode;
+    }
+
+    public long getSoftThrottleGrace() {
+        return softThrottleGrace;
+    }
+
+    /**
+     * Opt-in scheduling policy for this watcher control thread (applied on
+     * start), keeps its loop on time when host is saturated. Real-time
+     * policies fallback to a raised nice value when not allowed/supported.
+     * Usually needs root (or CAP_SYS_NICE).
+     *
+     * @param policy Desired policy, null to keep JVM default.
+     * @param priority Real-time priority (1-99) or nice value (-20 to 19).
+     */
+    public void setControlThreadPolicy(ControlThreadPolicy policy, int priority) {
+        this.controlThreadPolicy = policy;
+        this.controlThreadPriority = priority;
+    }
+
+    /**
+     * @return Policy really applied to control thread, null if none.
+     */
+    public ControlThreadPolicy getAppliedControlThreadPolicy() {
+        return appliedControlThreadPolicy;
+    }
+
+    /**
+     * Opt-in lock of current process memory (mlockall) on start. Java heap
+     * buffers cannot be locked individually, so entire mapped memory is
+     * locked, including control buffers.
+     *
+     * @param lockMemory true to lock memory.
+     */
+    public void setLockMemory(boolean lockMemory) {
+        this.lockMemory = lockMemory;
+    }
+
+    public boolean isMemoryLocked() {
+        return memoryLocked;
+    }
+
+    /**
+     * Checkpoints limiter state periodically to a state file (set before
+     * start), resuming from it on start if the same process instance is
+     * still alive, usage limit did not change and state is recent.<br>
+     * Only last second of history is carried, usage above or below limit
+     * (including while no watcher was running) is capped to one second of
+     * limit, so a restarted watcher never suspends process for longer than
+     * that to pay it back.
+     *
+     * @param checkpoint State file, null to disable.
+     */
+    public void setCheckpoint(LimiterCheckpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    public LimiterCheckpoint getCheckpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * @return Worst delay between expected and real control loop wakeups.
+     */
+    public long getMaxWakeupLatenessNanos() {
+        return maxWakeupLateness;
+    }
+
+    /**
+     * @return Average delay between expected and real control loop wakeups.
+     */
+    public long getAverageWakeupLatenessNanos() {
+        long localWakeups = wakeups;
+        return localWakeups == 0 ? 0 : totalWakeupLateness / localWakeups;
+    }
+
+    public void resetWakeupLateness() {
+        maxWakeupLateness = 0;
+        totalWakeupLateness = 0;
+        wakeups = 0;
+    }
+
+    private void controlSleep(long millis) throws InterruptedException {
+        long expected = System.nanoTime() + millis * 1000000L;
+        Thread.sleep(millis);
+        long lateness = System.nanoTime() - expected;
+        if (lateness > maxWakeupLateness) {
+            maxWakeupLateness = lateness;
+        }
+        totalWakeupLateness += lateness;
+        wakeups++;
+    }
+
+    /**
+     * @return Read + written bytes per second since last call on current
+     * thread.
+     */
+    public float getIoUsage() {
+        if (previousIo.get() != null) {
+            IoSnapshot current = processWatcher.getIoBytes();
+            try {
+                return current.getBytesPerSecond(previousIo.get());
+            } finally {
+                previousIo.set(current);
+            }
+        } else {
+            previousIo.set(processWatcher.getIoBytes());
+            return 0;
+        }
+    }
+
     public float getCpuUsage() {
         if (previousCpuTime.get() != null) {
             CpuTimeSnapshot current = processWatcher.getCpuTimes();
@@ -99,6 +277,29 @@ public final class CpuWatcher extends Thread {
         }
     }
 
+    /**
+     * Returns cpu usage of each process thread since previous call, hottest
+     * first. Usage is relative to entire system, like
+     * {@link #getCpuUsage()}.
+     *
+     * @return Threads usages.
+     */
+    public List<ThreadCpuUsage> getThreadCpuUsages() {
+        List<ThreadCpuUsage> usages = processWatcher.getThreadCpuUsages();
+        ThreadCpuUsage usage;
+        for (int i = 0; i < usages.size(); i++) {
+            usage = usages.get(i);
+            usages.set(i, new ThreadCpuUsage(usage.getTid(), usage.getName(), usage.getUsage() / cpuCount));
+        }
+        Collections.sort(usages, new Comparator<ThreadCpuUsage>() {
+            @Override
+            public int compare(ThreadCpuUsage o1, ThreadCpuUsage o2) {
+                return Float.compare(o2.getUsage(), o1.getUsage());
+            }
+        });
+        return usages;
+    }
+
     public AbstractProcessWatcher getProcessWatcher() {
         return processWatcher;
     }
@@ -109,56 +310,140 @@ public final class CpuWatcher extends Thread {
 
         CpuTimeSnapshot current;
         CpuTimeSnapshot prev;
+        IoSnapshot currentIo;
+        IoSnapshot prevIo;
 
         Thread resumeProcessHook = new Thread("Resume CpuWatcher Process") {
             @Override
             public void run() {
                 processWatcher.resume();
+                processWatcher.restorePriority();
             }
         };
 
         Runtime.getRuntime().addShutdownHook(resumeProcessHook);
 
+        AbstractProcessWatcherFactory factory = AbstractProcessWatcherFactory.getInstance();
+        if (controlThreadPolicy != null) {
+            appliedControlThreadPolicy = factory.setCurrentThreadPolicy(controlThreadPolicy, controlThreadPriority);
+        }
+        if (lockMemory) {
+            memoryLocked = factory.lockMemory();
+        }
+
+        LimiterCheckpoint localCheckpoint = this.checkpoint;
+        long startTime = 0;
+        long lastCheckpoint = System.nanoTime();
+        if (localCheckpoint != null) {
+            try {
+                startTime = processWatcher.getStartTime();
+                // snapshots timestamps are system wide (boot/process relative), valid across watcher restarts
+                Float limit = usageLimit;
+                CpuTimeSnapshot restored = localCheckpoint.restore((int) pid, startTime, limit);
+                if (restored != null && limit != null) {
+                    // usage while not watched is capped too
+                    previousCpuTimeLocal = recentBaseline(processWatcher.getCpuTimes(), restored, limit);
+                }
+            } catch (RuntimeException ex) {
+                // process not readable, no checkpoints
+                localCheckpoint = null;
+            }
+        }
+
         Float localUsageLimit;
+        Float localIoLimit;
+        SoftThrottleMode localSoftThrottleMode;
+        long deprioritizedAt = 0;
 
         while (!isInterrupted()) {
             try {
                 localUsageLimit = this.usageLimit;
-                if (localUsageLimit == null) {
+                localIoLimit = this.ioLimit;
+                if (localUsageLimit == null && localIoLimit == null) {
                     processWatcher.freeResources();
-                    while (this.usageLimit == null) {
+                    while (this.usageLimit == null && this.ioLimit == null) {
                         Thread.sleep(25);
                     }
                 } else {
                     processWatcher.resume();
-                    float usageDiff;
                     float currUsage;
-                    while ((localUsageLimit = this.usageLimit) != null) {
+                    float currIo;
+                    // highest usage/limit ratio of exceeded limits, 0 if none
+                    float exceeded;
+                    while (true) {
+                        localUsageLimit = this.usageLimit;
+                        localIoLimit = this.ioLimit;
+                        if (localUsageLimit == null && localIoLimit == null) {
+                            break;
+                        }
+
+                        // measured while still suspended, resuming before would let fast
+                        // processes (like I/O bound ones) burst a lot on every tick
+                        exceeded = 0;
+
+                        if (localUsageLimit != null) {
+                            current = processWatcher.getCpuTimes();
+
+                            prev = previousCpuTimeLocal;
+                            if (prev == null) {
+                                prev = previousCpuTimeLocal = current;
+                            }
+                            currUsage = current.getCpuUsage(prev) / cpuCount;
 
-                        if (processWatcher.isSuspended()) {
-                            processWatcher.resume();
+                            if (currUsage > localUsageLimit) {
+                                exceeded = currUsage / localUsageLimit;
+                            }
+
+                            if (localCheckpoint != null && System.nanoTime() - lastCheckpoint >= CHECKPOINT_INTERVAL) {
+                                localCheckpoint.save((int) pid, startTime, recentBaseline(current, prev, localUsageLimit), localUsageLimit, currUsage);
+                                lastCheckpoint = System.nanoTime();
+                            }
+                        }
+
+                        // same tick, no extra wakeups to watch I/O
+                        if (localIoLimit != null) {
+                            currentIo = processWatcher.getIoBytes();
+
+                            prevIo = previousIoLocal;
+                            if (prevIo == null) {
+                                prevIo = previousIoLocal = currentIo;
+                            }
+                            currIo = currentIo.getBytesPerSecond(prevIo);
+
+                            if (currIo > localIoLimit) {
+                                exceeded = Math.max(exceeded, currIo / localIoLimit);
+                            }
                         }
 
-                        current = processWatcher.getCpuTimes();
-                        
-                        prev = previousCpuTimeLocal;
-                        if (prev == null) {
-                            prev = previousCpuTimeLocal = current;
+                        localSoftThrottleMode = this.softThrottleMode;
+                        if (localSoftThrottleMode == null && processWatcher.isDeprioritized()) {
+                            processWatcher.restorePriority();
                         }
-                        usageDiff = (currUsage = (current.getCpuUsage(prev) / cpuCount)) - localUsageLimit;
-
-                        if (usageDiff > 0) {
-//                            System.out.println("DIFF: " + usageDiff //
-//                                    + ", USAGE: " + currUsage //
-//                                    + ", LIMIT: " + localUsageLimit //
-//                                    + ", SLEEP:" + Math.min((long) (Math.pow((currUsage / localUsageLimit), 2) * 100f), 500)//
-//                            );
+
+                        if (exceeded > 0) {
+                            if (localSoftThrottleMode != null) {
+                                if (!processWatcher.isDeprioritized() && processWatcher.deprioritize(localSoftThrottleMode)) {
+                                    deprioritizedAt = System.nanoTime();
+                                }
+                                // give lowered priority a chance before suspending
+                                if (processWatcher.isDeprioritized()
+                                        && System.nanoTime() - deprioritizedAt < this.softThrottleGrace * 1000000L) {
+                                    controlSleep(10);
+                                    continue;
+                                }
+                            }
                             if (!processWatcher.isSuspended()) {
                                 processWatcher.suspend();
                             }
-                            Thread.sleep(Math.min((long) (Math.pow((currUsage / localUsageLimit), 2) * 100f), 500));
+                            controlSleep(Math.min((long) (Math.pow(exceeded, 2) * 100f), 500));
                         } else {
-                            Thread.sleep(10);
+                            if (processWatcher.isSuspended()) {
+                                processWatcher.resume();
+                            }
+                            if (processWatcher.isDeprioritized()) {
+                                processWatcher.restorePriority();
+                            }
+                            controlSleep(10);
                         }
                     }
 
@@ -170,6 +455,7 @@ public final class CpuWatcher extends Thread {
             } finally {
                 try {
                     processWatcher.resume();
+                    processWatcher.restorePriority();
                     Runtime.getRuntime().removeShutdownHook(resumeProcessHook);
                 } catch (Exception ex) {
                     //ignore
@@ -178,6 +464,27 @@ public final class CpuWatcher extends Thread {
         }
     }
 
+    /**
+     * Moves a baseline forward to {@link #CHECKPOINT_WINDOW} before current
+     * snapshot, keeping usage above (debt) or below (credit) limit since
+     * original baseline, capped to one window at limit.
+     *
+     * @param current Current snapshot.
+     * @param baseline Original baseline.
+     * @param usageLimit Usage limit.
+     * @return Recent baseline.
+     */
+    private CpuTimeSnapshot recentBaseline(CpuTimeSnapshot current, CpuTimeSnapshot baseline, float usageLimit) {
+        // allowed cpu time per elapsed time
+        double rate = usageLimit * cpuCount / 100d;
+        double elapsed = Math.max(current.getTimestamp() - baseline.getTimestamp(), 0);
+        double window = Math.min(elapsed, CHECKPOINT_WINDOW);
+        double maxDebt = rate * window;
+        double debt = (current.getTotal() - baseline.getTotal()) - rate * elapsed;
+        debt = Math.max(Math.min(debt, maxDebt), -maxDebt);
+        return new CpuTimeSnapshot(current.getTotal() - rate * window - debt, current.getTimestamp() - window);
+    }
+
     public static float getOneCoreOnePercent() {
         try {
             return 1f / getCpuCount();
@@ -188,20 +495,68 @@ public final class CpuWatcher extends Thread {
 
     public static int getCpuCount() {
         if (CPU_COUNT == -1) {
-            CPU_COUNT = SYSTEM_INFO.getHardware().getProcessor().getLogicalProcessorCount();
+            CPU_COUNT = AbstractProcessWatcherFactory.getInstance().getCpuCount();
         }
         return CPU_COUNT;
     }
 
     @SuppressWarnings("SleepWhileInLoop")
-    public static void main(String[] args) throws InterruptedException {
+    public static void main(String[] args) throws InterruptedException, IOException {
+        ControlThreadPolicy policy = null;
+        int priority = 0;
+        boolean lockMemory = false;
+        LimiterCheckpoint checkpoint = null;
+        String token = null;
+        boolean insecure = false;
+        int first = 0;
+        if (args != null) {
+            for (; first < args.length; first++) {
+                if ("--rt".equals(args[first]) && first + 1 < args.length) {
+                    policy = ControlThreadPolicy.FIFO;
+                    priority = Integer.parseInt(args[++first]);
+                } else if ("--mlock".equals(args[first])) {
+                    lockMemory = true;
+                } else if ("--checkpoint".equals(args[first]) && first + 1 < args.length) {
+                    checkpoint = new LimiterCheckpoint(new File(args[++first]));
+                } else if ("--token-file".equals(args[first]) && first + 1 < args.length) {
+                    token = CpuWatcherServer.readToken(new File(args[++first]));
+                } else if ("--insecure".equals(args[first])) {
+                    insecure = true;
+                } else {
+                    break;
+                }
+            }
+            args = Arrays.copyOfRange(args, first, args.length);
+        }
+
         if (args == null || args.length == 0) {
-            System.out.println("Usage: [sudo] java -jar cpu-watcher.jar PID [CPU_MAX_USAGE_PERCENTAGE]");
+            System.out.println("Usage: [sudo] java -jar cpu-watcher.jar [--rt PRIORITY] [--mlock] [--checkpoint FILE] PID [CPU_MAX_USAGE_PERCENTAGE] [IO_MAX_BYTES_PER_SECOND]");
+            System.out.println("       [sudo] java -jar cpu-watcher.jar [--rt PRIORITY] [--mlock] [--checkpoint FILE] [--token-file FILE|--insecure] --listen PORT");
             System.exit(-1);
         }
 
-        Float limit = args.length == 2 ? Float.valueOf(args[1]) : null;
-        final CpuWatcher watcher = new CpuWatcher(Integer.parseInt(args[0]), limit);
+        if ("--listen".equals(args[0])) {
+            // any local user could control processes with root privileges
+            if (token == null && !insecure && "root".equals(System.getProperty("user.name"))) {
+                System.out.println("Refusing to listen as root without --token-file (or --insecure).");
+                System.exit(-1);
+            }
+            CpuWatcherServer server = new CpuWatcherServer(args.length > 1 ? Integer.parseInt(args[1]) : 0, token);
+            server.setControlThreadPolicy(policy, priority);
+            server.setLockMemory(lockMemory);
+            server.setCheckpoint(checkpoint);
+            server.start();
+            System.out.println("Listening on 127.0.0.1:" + server.getPort());
+            server.join();
+            return;
+        }
+
+        Float limit = args.length >= 2 && !"null".equals(args[1]) ? Float.valueOf(args[1]) : null;
+        Float ioLimit = args.length >= 3 ? Float.valueOf(args[2]) : null;
+        final CpuWatcher watcher = new CpuWatcher(Integer.parseInt(args[0]), limit, ioLimit);
+        watcher.setControlThreadPolicy(policy, priority);
+        watcher.setLockMemory(lockMemory);
+        watcher.setCheckpoint(checkpoint);
         watcher.start();
         while (!Thread.currentThread().isInterrupted()) {
             System.out.println(watcher.getCpuUsage());
@@ -0,0 +1,346 @@
+/** *****************************************************************************
+ * Copyright 2022 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************** */
+package dyorgio.runtime.cpu.watcher;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Thread that listens on a localhost port to manage watchers at runtime.<br>
+ * Line based protocol, one response line per command ("OK [value]" or "ERR
+ * message"), responses are flushed only when there are no more pending
+ * commands, so clients can batch many commands per round trip.<br>
+ * When a token is set, the first line of each connection must be that token
+ * ("OK" is answered, or "ERR Unauthorized" and the connection is closed). Any
+ * local user able to connect can suspend or renice any process the server
+ * can signal, so always use a token when running as root.<br>
+ * Commands:
+ * <pre>
+ * ADD pid [limit]       watch pid (or update limit of a watched pid)
+ * REMOVE pid            stop watching pid, resuming it
+ * LIMIT pid limit|null  change cpu usage limit
+ * IOLIMIT pid limit|null change I/O limit (bytes per second)
+ * SOFT pid mode|null [grace] soft throttle mode (NICE, BATCH, IDLE) and grace millis
+ * USAGE pid             cpu usage since previous USAGE (or ADD) of pid
+ * STATS pid             suspensions, max and average control loop wakeup lateness (micros)
+ * LIST                  watched pids and limits (pid:limit ...), dead watchers are dropped
+ * </pre>
+ *
+ * @author dyorgio
+ */
+public final class CpuWatcherServer extends Thread {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final ServerSocket serverSocket;
+    private final ConcurrentMap<Integer, CpuWatcher> watchers = new ConcurrentHashMap();
+    // shared by all connections, first USAGE of a new connection is not 0
+    private final Map<Integer, CpuTimeSnapshot> usageBaselines = new ConcurrentHashMap();
+    private final byte[] token;
+
+    private volatile ControlThreadPolicy controlThreadPolicy;
+    private volatile int controlThreadPriority;
+    private volatile boolean lockMemory;
+    private volatile LimiterCheckpoint checkpoint;
+
+    public CpuWatcherServer(int port) throws IOException {
+        this(port, null);
+    }
+
+    /**
+     * @param port Localhost port, 0 to any free port.
+     * @param token Shared secret expected as first line of each connection,
+     * null to accept any local connection.
+     * @throws IOException If port cannot be bound.
+     */
+    public CpuWatcherServer(int port, String token) throws IOException {
+        super("CpuWatcherServer[PORT:" + port + "]");
+        this.token = token == null ? null : token.getBytes(ASCII);
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getByName("127.0.0.1"));
+        setDaemon(true);
+    }
+
+    /**
+     * Reads a token from first line of a file only accessible by its owner
+     * (like 0600).
+     *
+     * @param file Token file.
+     * @return Token.
+     * @throws IOException If file cannot be read, is empty or is accessible by
+     * group/others.
+     */
+    public static String readToken(File file) throws IOException {
+        try {
+            Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(file.toPath());
+            for (PosixFilePermission permission : permissions) {
+                switch (permission) {
+                    case OWNER_READ:
+                    case OWNER_WRITE:
+                    case OWNER_EXECUTE:
+                        break;
+                    default:
+                        throw new IOException("Token file must be accessible only by its owner (0600): " + file);
+                }
+            }
+        } catch (UnsupportedOperationException ex) {
+            // no posix permissions (windows)
+        }
+        List<String> lines = Files.readAllLines(file.toPath(), ASCII);
+        String value = lines.isEmpty() ? "" : lines.get(0).trim();
+        if (value.isEmpty()) {
+            throw new IOException("Empty token file: " + file);
+        }
+        return value;
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Scheduling policy of new watchers control threads, see
+     * {@link CpuWatcher#setControlThreadPolicy(dyorgio.runtime.cpu.watcher.ControlThreadPolicy, int)}.
+     *
+     * @param policy Desired policy, null to keep JVM default.
+     * @param priority Real-time priority (1-99) or nice value (-20 to 19).
+     */
+    public void setControlThreadPolicy(ControlThreadPolicy policy, int priority) {
+        this.controlThreadPolicy = policy;
+        this.controlThreadPriority = priority;
+    }
+
+    public void setLockMemory(boolean lockMemory) {
+        this.lockMemory = lockMemory;
+    }
+
+    /**
+     * State file shared by new watchers, see
+     * {@link CpuWatcher#setCheckpoint(dyorgio.runtime.cpu.watcher.LimiterCheckpoint)}.
+     *
+     * @param checkpoint State file, null to disable.
+     */
+    public void setCheckpoint(LimiterCheckpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    public synchronized void add(int pid, Float usageLimit) {
+        CpuWatcher watcher = watchers.get(pid);
+        // a dead watcher (target exited or failed) is replaced
+        if (watcher == null || !watcher.isAlive()) {
+            watcher = new CpuWatcher(pid, usageLimit);
+            watcher.setControlThreadPolicy(controlThreadPolicy, controlThreadPriority);
+            watcher.setLockMemory(lockMemory);
+            watcher.setCheckpoint(checkpoint);
+            usageBaselines.put(pid, watcher.getProcessWatcher().getCpuTimes());
+            watcher.start();
+            watchers.put(pid, watcher);
+        } else {
+            watcher.setUsageLimit(usageLimit);
+        }
+    }
+
+    public synchronized boolean remove(int pid) throws InterruptedException {
+        CpuWatcher watcher = watchers.remove(pid);
+        usageBaselines.remove(pid);
+        if (watcher == null) {
+            return false;
+        }
+        watcher.interrupt();
+        watcher.join(3000);
+        watcher.getProcessWatcher().resume();
+        LimiterCheckpoint localCheckpoint = watcher.getCheckpoint();
+        if (localCheckpoint != null) {
+            // explicitly removed, do not resume its state later
+            localCheckpoint.remove(pid);
+        }
+        return true;
+    }
+
+    /**
+     * @param pid Watched pid.
+     * @return Alive watcher of pid, null if not watched or if its watcher died
+     * (dropped).
+     */
+    public CpuWatcher getWatcher(int pid) {
+        CpuWatcher watcher = watchers.get(pid);
+        if (watcher != null && !watcher.isAlive()) {
+            if (watchers.remove(pid, watcher)) {
+                usageBaselines.remove(pid);
+            }
+            return null;
+        }
+        return watcher;
+    }
+
+    private float getCpuUsage(int pid, CpuWatcher watcher) {
+        CpuTimeSnapshot current = watcher.getProcessWatcher().getCpuTimes();
+        CpuTimeSnapshot previous = usageBaselines.put(pid, current);
+        return previous == null ? 0 : current.getCpuUsage(previous) / CpuWatcher.getCpuCount();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!isInterrupted()) {
+                final Socket socket = serverSocket.accept();
+                Thread connection = new Thread("CpuWatcherServer Connection[" + socket.getRemoteSocketAddress() + "]") {
+                    @Override
+                    public void run() {
+                        handle(socket);
+                    }
+                };
+                connection.setDaemon(true);
+                connection.start();
+            }
+        } catch (IOException ex) {
+            if (!serverSocket.isClosed()) {
+                throw new RuntimeException(ex);
+            }
+        } finally {
+            close();
+        }
+    }
+
+    @Override
+    public void interrupt() {
+        close();
+        super.interrupt();
+    }
+
+    private void close() {
+        try {
+            serverSocket.close();
+        } catch (IOException ex) {
+            // ignore
+        }
+    }
+
+    private void handle(Socket socket) {
+        try {
+            try {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), ASCII));
+                Writer writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), ASCII));
+                String line;
+                if (token != null) {
+                    line = reader.readLine();
+                    if (line == null) {
+                        return;
+                    }
+                    if (!MessageDigest.isEqual(token, line.trim().getBytes(ASCII))) {
+                        writer.write("ERR Unauthorized\n");
+                        writer.flush();
+                        return;
+                    }
+                    writer.write("OK\n");
+                    if (!reader.ready()) {
+                        writer.flush();
+                    }
+                }
+                while ((line = reader.readLine()) != null) {
+                    writer.write(execute(line));
+                    writer.write('\n');
+                    // batched commands already received, answer all at once
+                    if (!reader.ready()) {
+                        writer.flush();
+                    }
+                }
+                writer.flush();
+            } finally {
+                socket.close();
+            }
+        } catch (IOException ex) {
+            // connection closed
+        }
+    }
+
+    String execute(String line) {
+        String[] args = line.trim().split("\\s+");
+        try {
+            String command = args[0].toUpperCase();
+            if ("LIST".equals(command)) {
+                StringBuilder builder = new StringBuilder("OK");
+                CpuWatcher watcher;
+                for (Integer pid : watchers.keySet()) {
+                    watcher = getWatcher(pid);
+                    if (watcher != null) {
+                        builder.append(' ').append(pid).append(':').append(watcher.getUsageLimit());
+                    }
+                }
+                return builder.toString();
+            }
+            if (args.length < 2) {
+                return "ERR Invalid command: " + line;
+            }
+            int pid = Integer.parseInt(args[1]);
+            if ("ADD".equals(command)) {
+                add(pid, args.length > 2 ? parseLimit(args[2]) : null);
+                return "OK";
+            } else if ("REMOVE".equals(command)) {
+                return remove(pid) ? "OK" : "ERR Not watched: " + pid;
+            }
+            CpuWatcher watcher = getWatcher(pid);
+            if (watcher == null) {
+                return "ERR Not watched: " + pid;
+            }
+            if ("USAGE".equals(command)) {
+                return "OK " + getCpuUsage(pid, watcher);
+            } else if ("STATS".equals(command)) {
+                return "OK " + watcher.getProcessWatcher().getSuspendCount()
+                        + " " + watcher.getMaxWakeupLatenessNanos() / 1000L
+                        + " " + watcher.getAverageWakeupLatenessNanos() / 1000L;
+            } else if (args.length < 3) {
+                return "ERR Invalid command: " + line;
+            } else if ("LIMIT".equals(command)) {
+                watcher.setUsageLimit(parseLimit(args[2]));
+                return "OK";
+            } else if ("IOLIMIT".equals(command)) {
+                watcher.setIoLimit(parseLimit(args[2]));
+                return "OK";
+            } else if ("SOFT".equals(command)) {
+                watcher.setSoftThrottle("null".equals(args[2]) ? null : SoftThrottleMode.valueOf(args[2].toUpperCase()),
+                        args.length > 3 ? Long.parseLong(args[3]) : watcher.getSoftThrottleGrace());
+                return "OK";
+            }
+            return "ERR Invalid command: " + line;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return "ERR Interrupted";
+        } catch (Exception ex) {
+            return "ERR " + ex.getMessage();
+        }
+    }
+
+    private static Float parseLimit(String value) {
+        return "null".equals(value) ? null : Float.valueOf(value);
+    }
+}
@@ -0,0 +1,112 @@
+/** *****************************************************************************
+ * Copyright 2022 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************** */
+package dyorgio.runtime.cpu.watcher;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing int to long map, used to index values by PID/TID without
+ * boxing. Key 0 is reserved (never a valid PID/TID).
+ *
+ * @author dyorgio
+ */
+final class IntLongMap {
+
+    private int[] keys;
+    private long[] values;
+    private int mask;
+    private int size;
+
+    IntLongMap() {
+        this(16);
+    }
+
+    IntLongMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(expectedSize, 4) * 2 - 1) << 1;
+        keys = new int[capacity];
+        values = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    long get(int key, long missing) {
+        if (key == 0) {
+            // would match a free slot
+            return missing;
+        }
+        int index = indexOf(key);
+        return keys[index] == key ? values[index] : missing;
+    }
+
+    boolean containsKey(int key) {
+        return key != 0 && keys[indexOf(key)] == key;
+    }
+
+    void put(int key, long value) {
+        if (key == 0) {
+            throw new IllegalArgumentException("Key 0 is reserved.");
+        }
+        int index = indexOf(key);
+        if (keys[index] != key) {
+            if ((size + 1) * 2 > keys.length) {
+                grow();
+                index = indexOf(key);
+            }
+            keys[index] = key;
+            size++;
+        }
+        values[index] = value;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        if (size > 0) {
+            Arrays.fill(keys, 0);
+            size = 0;
+        }
+    }
+
+    private int indexOf(int key) {
+        int index = hash(key) & mask;
+        int current;
+        while ((current = keys[index]) != 0 && current != key) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        long[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new long[oldValues.length * 2];
+        mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int index = indexOf(oldKeys[i]);
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
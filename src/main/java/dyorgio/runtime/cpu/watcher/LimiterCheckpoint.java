@@ -0,0 +1,227 @@
+/** *****************************************************************************
+ * Copyright 2022 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************** */
+package dyorgio.runtime.cpu.watcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.UUID;
+
+/**
+ * Small memory-mapped state file where watchers checkpoint their limiter
+ * state (cpu usage baseline, limit and last usage) per process, allowing a
+ * restarted watcher to resume enforcement if the same process instance
+ * (boot + PID + start time) is still alive.<br>
+ * Boot identity comes from /proc/sys/kernel/random/boot_id (Linux), start
+ * times and snapshots timestamps are only comparable on the same boot.<br>
+ * States older than max age (default 3 seconds) are ignored, usage while
+ * not watched for longer is unknown.<br>
+ * Can be shared by many watchers of same JVM.
+ *
+ * @author dyorgio
+ */
+public final class LimiterCheckpoint {
+
+    private static final int MAGIC = 0x43505743; // CPWC
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 16;
+
+    // pid(4) + reserved(4) + startTime(8) + bootId(16) + cpuTotal(8) + cpuTimestamp(8) + limit(4) + usage(4) + savedAt(8)
+    private static final int SLOT_SIZE = 64;
+    private static final int PID = 0;
+    private static final int START_TIME = 8;
+    private static final int BOOT_ID = 16;
+    private static final int CPU_TOTAL = 32;
+    private static final int CPU_TIMESTAMP = 40;
+    private static final int LIMIT = 48;
+    private static final int USAGE = 52;
+    private static final int SAVED_AT = 56;
+
+    private static final long DEFAULT_MAX_AGE = 3000L;
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final int slots;
+    private final UUID bootId;
+    private volatile long maxAgeMillis = DEFAULT_MAX_AGE;
+
+    public LimiterCheckpoint(File file) throws IOException {
+        this(file, 1024);
+    }
+
+    public LimiterCheckpoint(File file, int slots) throws IOException {
+        this(file, slots, currentBootId());
+    }
+
+    LimiterCheckpoint(File file, int slots, UUID bootId) throws IOException {
+        this.bootId = bootId;
+        this.file = new RandomAccessFile(file, "rw");
+        long size = HEADER_SIZE + (long) slots * SLOT_SIZE;
+        boolean valid = this.file.length() >= HEADER_SIZE;
+        if (valid) {
+            this.file.seek(0);
+            valid = this.file.readInt() == MAGIC && this.file.readInt() == VERSION && this.file.readInt() == slots;
+        }
+        if (!valid) {
+            this.file.setLength(0);
+        }
+        this.file.setLength(size);
+        this.buffer = this.file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        this.slots = slots;
+        if (!valid) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, slots);
+        }
+    }
+
+    /**
+     * @param maxAgeMillis How old a saved state can be to be restored.
+     */
+    public void setMaxAge(long maxAgeMillis) {
+        if (maxAgeMillis < 0) {
+            throw new RuntimeException("Invalid max age (" + maxAgeMillis + "), cannot be negative.");
+        }
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    public long getMaxAge() {
+        return maxAgeMillis;
+    }
+
+    /**
+     * Saves limiter state of a process.
+     *
+     * @param pid Process ID.
+     * @param startTime Process start time (identity).
+     * @param baseline Cpu usage baseline.
+     * @param usageLimit Current limit.
+     * @param usage Last measured usage.
+     */
+    public synchronized void save(int pid, long startTime, CpuTimeSnapshot baseline, Float usageLimit, float usage) {
+        int offset = find(pid);
+        boolean isNew = offset < 0;
+        if (isNew) {
+            offset = allocate();
+        }
+        buffer.putLong(offset + START_TIME, startTime);
+        buffer.putLong(offset + BOOT_ID, bootId.getMostSignificantBits());
+        buffer.putLong(offset + BOOT_ID + 8, bootId.getLeastSignificantBits());
+        buffer.putDouble(offset + CPU_TOTAL, baseline.getTotal());
+        buffer.putDouble(offset + CPU_TIMESTAMP, baseline.getTimestamp());
+        buffer.putFloat(offset + LIMIT, usageLimit == null ? Float.NaN : usageLimit);
+        buffer.putFloat(offset + USAGE, usage);
+        buffer.putLong(offset + SAVED_AT, System.currentTimeMillis());
+        // written last, slot is only visible when complete
+        if (isNew) {
+            buffer.putInt(offset + PID, pid);
+        }
+    }
+
+    /**
+     * Restores cpu usage baseline of a process, only if it is the same
+     * process instance (saved on current boot), limit did not change and
+     * state is not older than max age.
+     *
+     * @param pid Process ID.
+     * @param startTime Process start time (identity).
+     * @param usageLimit Current limit.
+     * @return Saved baseline or null if not found/not valid anymore.
+     */
+    public synchronized CpuTimeSnapshot restore(int pid, long startTime, Float usageLimit) {
+        int offset = find(pid);
+        if (offset < 0 || buffer.getLong(offset + START_TIME) != startTime
+                || buffer.getLong(offset + BOOT_ID) != bootId.getMostSignificantBits()
+                || buffer.getLong(offset + BOOT_ID + 8) != bootId.getLeastSignificantBits()
+                || System.currentTimeMillis() - buffer.getLong(offset + SAVED_AT) > maxAgeMillis) {
+            return null;
+        }
+        float savedLimit = buffer.getFloat(offset + LIMIT);
+        if (usageLimit == null ? !Float.isNaN(savedLimit) : usageLimit != savedLimit) {
+            return null;
+        }
+        return new CpuTimeSnapshot(buffer.getDouble(offset + CPU_TOTAL), buffer.getDouble(offset + CPU_TIMESTAMP));
+    }
+
+    /**
+     * @param pid Process ID.
+     * @return Last saved usage of process or NaN if not found.
+     */
+    public synchronized float getLastUsage(int pid) {
+        int offset = find(pid);
+        return offset < 0 ? Float.NaN : buffer.getFloat(offset + USAGE);
+    }
+
+    public synchronized void remove(int pid) {
+        int offset = find(pid);
+        if (offset >= 0) {
+            buffer.putInt(offset + PID, 0);
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        buffer.force();
+        file.close();
+    }
+
+    /**
+     * @return Current boot identity, zero UUID if not available (non Linux).
+     */
+    static UUID currentBootId() {
+        try {
+            return UUID.fromString(new String(Files.readAllBytes(Paths.get("/proc/sys/kernel/random/boot_id")), Charset.forName("US-ASCII")).trim());
+        } catch (IOException | RuntimeException ex) {
+            return new UUID(0, 0);
+        }
+    }
+
+    private int find(int pid) {
+        int offset;
+        for (int i = 0; i < slots; i++) {
+            offset = HEADER_SIZE + i * SLOT_SIZE;
+            if (buffer.getInt(offset + PID) == pid) {
+                return offset;
+            }
+        }
+        return -1;
+    }
+
+    private int allocate() {
+        // free slot or least recently saved one (probably a dead process)
+        int oldest = HEADER_SIZE;
+        long oldestSavedAt = Long.MAX_VALUE;
+        int offset;
+        long savedAt;
+        for (int i = 0; i < slots; i++) {
+            offset = HEADER_SIZE + i * SLOT_SIZE;
+            if (buffer.getInt(offset + PID) == 0) {
+                return offset;
+            }
+            savedAt = buffer.getLong(offset + SAVED_AT);
+            if (savedAt < oldestSavedAt) {
+                oldestSavedAt = savedAt;
+                oldest = offset;
+            }
+        }
+        buffer.putInt(oldest + PID, 0);
+        return oldest;
+    }
+}
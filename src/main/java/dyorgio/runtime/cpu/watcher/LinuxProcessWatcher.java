@@ -0,0 +1,178 @@
+/** *****************************************************************************
+ * Copyright 2022 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************** */
+package dyorgio.runtime.cpu.watcher;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Linux specialization that reads process counters directly from /proc.
+ *
+ * @author dyorgio
+ */
+public class LinuxProcessWatcher extends PosixProcessWatcher {
+
+    /**
+     * Clock ticks per second used by /proc stat times (USER_HZ), fixed at 100
+     * by Linux ABI on all mainstream architectures.
+     */
+    private static final long USER_HZ = 100;
+
+    private static final int SCHED_OTHER = 0;
+    private static final int SCHED_BATCH = 3;
+    private static final int SCHED_IDLE = 5;
+
+    private static final byte[] READ_BYTES = ProcFile.key("read_bytes:");
+    private static final byte[] WRITE_BYTES = ProcFile.key("write_bytes:");
+
+    private final ProcFile stat;
+    private final ProcFile io;
+    private final String taskPath;
+    private final ProcFile threadStat = new ProcFile(null, 256);
+    // original (policy << 40 | rt priority << 32 | nice) of each thread, Linux priorities are per thread
+    // guarded by synchronized deprioritize/restorePriority
+    private final IntLongMap originalPriorities = new IntLongMap();
+
+    public LinuxProcessWatcher(int pid) {
+        super(pid, false);
+        stat = new ProcFile("/proc/" + pid + "/stat");
+        io = new ProcFile("/proc/" + pid + "/io");
+        taskPath = "/proc/" + pid + "/task/";
+    }
+
+    @Override
+    public CpuTimeSnapshot getCpuTimes() {
+        synchronized (stat) {
+            try {
+                stat.read();
+                // utime + stime
+                long ticks = stat.statField(14) + stat.statField(15);
+                return new CpuTimeSnapshot(ticks * 1000L / USER_HZ, System.nanoTime() / 1000000L);
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+    }
+
+    @Override
+    public long getStartTime() {
+        synchronized (stat) {
+            try {
+                stat.read();
+                // starttime, ticks since boot
+                return stat.statField(22);
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+    }
+
+    @Override
+    public IoSnapshot getIoBytes() {
+        synchronized (io) {
+            try {
+                io.read();
+                return new IoSnapshot(io.keyValue(READ_BYTES), io.keyValue(WRITE_BYTES), System.nanoTime() / 1000000L);
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+    }
+
+    @Override
+    protected long readThreadCpuTimes() {
+        String[] tids = new File(taskPath).list();
+        if (tids == null) {
+            throw new RuntimeException("Process not found: " + pid);
+        }
+        for (String tid : tids) {
+            try {
+                threadStat.read(taskPath + tid + "/stat");
+            } catch (IOException ex) {
+                // thread finished
+                continue;
+            }
+            addThreadCpuTime(Integer.parseInt(tid), threadStat.statComm(),
+                    (threadStat.statField(14) + threadStat.statField(15)) * 1000L / USER_HZ);
+        }
+        return System.nanoTime() / 1000000L;
+    }
+
+    @Override
+    protected boolean deprioritizeImpl(SoftThrottleMode mode) {
+        boolean changed = false;
+        int[] param = {0};
+        for (String task : listTasks()) {
+            int tid = Integer.parseInt(task);
+            // originals not restored yet are the true ones
+            if (!originalPriorities.containsKey(tid)) {
+                int policy = CLibrary.INSTANCE.sched_getscheduler(tid);
+                int nice = CLibrary.INSTANCE.getpriority(PRIO_PROCESS, tid);
+                if (policy < 0 || CLibrary.INSTANCE.sched_getparam(tid, param) != 0) {
+                    // thread finished
+                    continue;
+                }
+                // real-time policies (FIFO/RR) need their priority back
+                originalPriorities.put(tid, ((long) policy << 40) | ((long) (param[0] & 0xFF) << 32) | (nice & 0xFFFFFFFFL));
+                param[0] = 0;
+            }
+            if (mode == SoftThrottleMode.NICE) {
+                changed |= CLibrary.INSTANCE.setpriority(PRIO_PROCESS, tid, LOWEST_NICE) == 0;
+            } else {
+                changed |= CLibrary.INSTANCE.sched_setscheduler(tid, mode == SoftThrottleMode.IDLE ? SCHED_IDLE : SCHED_BATCH, param) == 0;
+            }
+        }
+        return changed;
+    }
+
+    @Override
+    protected boolean restorePriorityImpl() {
+        boolean restored = true;
+        int[] param = {0};
+        long mainThread = originalPriorities.get(pid, SCHED_OTHER);
+        for (String task : listTasks()) {
+            int tid = Integer.parseInt(task);
+            // threads created meanwhile inherited lowered priority, restore as main thread
+            long original = originalPriorities.get(tid, mainThread);
+            param[0] = (int) (original >>> 32) & 0xFF;
+            if ((CLibrary.INSTANCE.sched_setscheduler(tid, (int) (original >>> 40), param) != 0
+                    | CLibrary.INSTANCE.setpriority(PRIO_PROCESS, tid, (int) original) != 0)
+                    && CLibrary.INSTANCE.sched_getscheduler(tid) >= 0) {
+                // failed on a live thread, keep originals to retry
+                restored = false;
+            }
+        }
+        if (restored) {
+            originalPriorities.clear();
+        }
+        return restored;
+    }
+
+    private String[] listTasks() {
+        String[] tids = new File(taskPath).list();
+        return tids == null ? new String[0] : tids;
+    }
+
+    @Override
+    public void freeResources() {
+        synchronized (stat) {
+            stat.close();
+        }
+        synchronized (io) {
+            io.close();
+        }
+    }
+}
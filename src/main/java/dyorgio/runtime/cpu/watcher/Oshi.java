@@ -0,0 +1,38 @@
+/** *****************************************************************************
+ * Copyright 2022 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************** */
+package dyorgio.runtime.cpu.watcher;
+
+import oshi.SystemInfo;
+import oshi.software.os.OperatingSystem;
+import oshi.util.GlobalConfig;
+
+/**
+ * Lazy holder of OSHI objects, initialized only on first use (platforms
+ * without native /proc route).
+ *
+ * @author dyorgio
+ */
+final class Oshi {
+
+    static {
+        GlobalConfig.set("oshi.util.memoizer.expiration", 0);
+    }
+    static final SystemInfo SYSTEM_INFO = new SystemInfo();
+    static final OperatingSystem OPERATING_SYSTEM = SYSTEM_INFO.getOperatingSystem();
+
+    private Oshi() {
+    }
+}
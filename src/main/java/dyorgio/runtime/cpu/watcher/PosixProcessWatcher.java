@@ -27,12 +27,17 @@ public class PosixProcessWatcher extends AbstractProcessWatcher {
     private static final int SIGSTOP = 19;
     private static final int SIGCONT = 18;
 
+    static final int PRIO_PROCESS = 0;
+    static final int LOWEST_NICE = 19;
+
     private static final int SIGSTOP_MAC = 17;
     private static final int SIGCONT_MAC = 19;
 
     private final int sigstop;
     private final int sigcont;
 
+    private int originalNice;
+
     public PosixProcessWatcher(int pid, boolean mac) {
         super(pid);
         if (mac) {
@@ -54,6 +59,18 @@ public class PosixProcessWatcher extends AbstractProcessWatcher {
         CLibrary.INSTANCE.kill((int) pid, sigcont);
     }
 
+    @Override
+    protected boolean deprioritizeImpl(SoftThrottleMode mode) {
+        // scheduling policies are Linux only, always nice
+        originalNice = CLibrary.INSTANCE.getpriority(PRIO_PROCESS, pid);
+        return CLibrary.INSTANCE.setpriority(PRIO_PROCESS, pid, LOWEST_NICE) == 0;
+    }
+
+    @Override
+    protected boolean restorePriorityImpl() {
+        return CLibrary.INSTANCE.setpriority(PRIO_PROCESS, pid, originalNice) == 0;
+    }
+
     @Override
     public void freeResources() {
         // Nothing to free on Posix
@@ -66,5 +83,17 @@ public class PosixProcessWatcher extends AbstractProcessWatcher {
         int getpid();
 
         void kill(int pid, int signal);
+
+        int getpriority(int which, int who);
+
+        int setpriority(int which, int who, int prio);
+
+        int sched_getscheduler(int pid);
+
+        int sched_setscheduler(int pid, int policy, int[] param);
+
+        int sched_getparam(int pid, int[] param);
+
+        int mlockall(int flags);
     }
 }
@@ -0,0 +1,210 @@
+/** *****************************************************************************
+ * Copyright 2022 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************** */
+package dyorgio.runtime.cpu.watcher;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Reusable reader of small Linux /proc files.<br>
+ * The file descriptor and read buffer are kept between reads, seeking to
+ * start makes kernel regenerate the content, avoiding open/close on each
+ * sample.
+ *
+ * @author dyorgio
+ */
+final class ProcFile {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final String path;
+    private RandomAccessFile file;
+    private byte[] buffer;
+    private int length;
+
+    ProcFile(String path) {
+        this(path, 512);
+    }
+
+    ProcFile(String path, int initialCapacity) {
+        this.path = path;
+        this.buffer = new byte[initialCapacity];
+    }
+
+    /**
+     * Reads the whole file content to internal buffer.
+     *
+     * @return Content length.
+     * @throws IOException If file cannot be read (process died?).
+     */
+    int read() throws IOException {
+        if (file == null) {
+            file = new RandomAccessFile(path, "r");
+        }
+        file.seek(0);
+        return length = readFully(file);
+    }
+
+    /**
+     * Reads a file that is not kept open (like threads stats) to internal
+     * buffer.
+     *
+     * @param otherPath File to read.
+     * @return Content length.
+     * @throws IOException If file cannot be read.
+     */
+    int read(String otherPath) throws IOException {
+        RandomAccessFile other = new RandomAccessFile(otherPath, "r");
+        try {
+            return length = readFully(other);
+        } finally {
+            other.close();
+        }
+    }
+
+    private int readFully(RandomAccessFile input) throws IOException {
+        int total = 0;
+        int read;
+        while ((read = input.read(buffer, total, buffer.length - total)) > 0) {
+            total += read;
+            if (total == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+        }
+        return total;
+    }
+
+    void close() {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException ex) {
+                // ignore
+            }
+            file = null;
+        }
+    }
+
+    /**
+     * Parses a numeric field of last read stat file (/proc/[pid]/stat or
+     * /proc/[pid]/task/[tid]/stat).
+     *
+     * @param field Field number as documented on proc(5), starting on 1.
+     * @return Field value.
+     */
+    long statField(int field) {
+        // comm (field 2) can contain spaces and parentheses, fields start after last ')'
+        int index = lastIndexOf((byte) ')') + 2;
+        for (int current = 3; current < field && index < length; index++) {
+            if (buffer[index] == ' ') {
+                current++;
+            }
+        }
+        return parseLong(index);
+    }
+
+    /**
+     * @return Command name (field 2) of last read stat file.
+     */
+    String statComm() {
+        int start = 0;
+        while (start < length && buffer[start] != '(') {
+            start++;
+        }
+        int end = lastIndexOf((byte) ')');
+        return start < end ? new String(buffer, start + 1, end - start - 1, ASCII) : "";
+    }
+
+    /**
+     * Parses a value of last read "key: value" file (like /proc/[pid]/io).
+     *
+     * @param key Key name with trailing colon (ex: "read_bytes:").
+     * @return Key value or -1 if not present.
+     */
+    long keyValue(byte[] key) {
+        int lineStart = 0;
+        while (lineStart < length) {
+            if (startsWith(lineStart, key)) {
+                int index = lineStart + key.length;
+                while (index < length && buffer[index] == ' ') {
+                    index++;
+                }
+                return parseLong(index);
+            }
+            while (lineStart < length && buffer[lineStart++] != '\n') {
+                // skip line
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parses a space separated numeric field of last read file.
+     *
+     * @param field Field index, starting on 0.
+     * @return Field value.
+     */
+    long field(int field) {
+        int index = 0;
+        for (int current = 0; current < field && index < length; index++) {
+            if (buffer[index] == ' ') {
+                current++;
+            }
+        }
+        return parseLong(index);
+    }
+
+    private boolean startsWith(int offset, byte[] prefix) {
+        if (offset + prefix.length > length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int lastIndexOf(byte value) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (buffer[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private long parseLong(int index) {
+        long value = 0;
+        boolean negative = index < length && buffer[index] == '-';
+        if (negative) {
+            index++;
+        }
+        byte digit;
+        while (index < length && (digit = buffer[index]) >= '0' && digit <= '9') {
+            value = value * 10 + (digit - '0');
+            index++;
+        }
+        return negative ? -value : value;
+    }
+
+    static byte[] key(String key) {
+        return key.getBytes(ASCII);
+    }
+}
@@ -0,0 +1,36 @@
+/** *****************************************************************************
+ * Copyright 2022 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************** */
+package dyorgio.runtime.cpu.watcher;
+
+/**
+ * How to lower process priority before suspending it.
+ *
+ * @author dyorgio
+ */
+public enum SoftThrottleMode {
+    /**
+     * Lowest nice value (19).
+     */
+    NICE,
+    /**
+     * SCHED_BATCH scheduling policy (Linux only, NICE on other platforms).
+     */
+    BATCH,
+    /**
+     * SCHED_IDLE scheduling policy (Linux only, NICE on other platforms).
+     */
+    IDLE
+}
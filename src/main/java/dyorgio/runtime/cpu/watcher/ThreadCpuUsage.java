@@ -0,0 +1,53 @@
+/** *****************************************************************************
+ * Copyright 2022 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************** */
+package dyorgio.runtime.cpu.watcher;
+
+/**
+ * Cpu usage of a single thread of watched process.
+ *
+ * @author dyorgio
+ */
+public class ThreadCpuUsage {
+
+    private final int tid;
+    private final String name;
+    private final float usage;
+
+    public ThreadCpuUsage(int tid, String name, float usage) {
+        this.tid = tid;
+        this.name = name;
+        this.usage = usage;
+    }
+
+    public int getTid() {
+        return tid;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public float getUsage() {
+        return usage;
+    }
+
+    @Override
+    public String toString() {
+        return "\ttid:" + tid + "\r\n"
+                + "\tname:" + name + "\r\n"
+                + "\tusage:" + usage;
+    }
+}
@@ -0,0 +1,244 @@
+/** *****************************************************************************
+ * Copyright 2022 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************** */
+package dyorgio.runtime.cpu.watcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Thread to protect a latency critical process (victim) from noisy
+ * neighbours (aggressors).<br>
+ * Watches victim run-queue delay (average time waiting for a cpu per
+ * timeslice, from /proc/[pid]/task/*&#47;schedstat, Linux only) and
+ * tightens aggressors usage limits while it is above target, relaxing them
+ * back to their maximum limits when victim is not suffering.
+ *
+ * @author dyorgio
+ */
+public final class VictimProtector extends Thread {
+
+    private static final float MIN_LEVEL = 0.01f;
+    private static final float DECREASE_FACTOR = 0.5f;
+    private static final float INCREASE_STEP = 0.05f;
+
+    private final int victimPid;
+    private final String taskPath;
+    private final long periodMillis;
+    private final ProcFile schedstat = new ProcFile(null, 64);
+    private final List<Aggressor> aggressors = new CopyOnWriteArrayList();
+
+    private volatile long targetDelayMicros;
+    private volatile long delayMicros;
+    private volatile float level = 1f;
+
+    public VictimProtector(int victimPid, long targetDelayMicros) {
+        this(victimPid, targetDelayMicros, 100);
+    }
+
+    public VictimProtector(int victimPid, long targetDelayMicros, long periodMillis) {
+        super("VictimProtector[PID:" + victimPid + "]");
+        if (!new File("/proc/" + victimPid + "/schedstat").exists()) {
+            throw new RuntimeException("Victim protection needs Linux /proc/[pid]/schedstat (PID:" + victimPid + ").");
+        }
+        this.victimPid = victimPid;
+        this.taskPath = "/proc/" + victimPid + "/task/";
+        this.periodMillis = periodMillis;
+        setTargetDelayMicros(targetDelayMicros);
+        setDaemon(true);
+        setPriority(MAX_PRIORITY);
+    }
+
+    public int getVictimPid() {
+        return victimPid;
+    }
+
+    public void setTargetDelayMicros(long targetDelayMicros) {
+        if (targetDelayMicros < 0) {
+            throw new RuntimeException("Invalid target delay (" + targetDelayMicros + "), cannot be negative.");
+        }
+        this.targetDelayMicros = targetDelayMicros;
+    }
+
+    public long getTargetDelayMicros() {
+        return targetDelayMicros;
+    }
+
+    /**
+     * @return Victim average run-queue delay per timeslice on last period.
+     */
+    public long getDelayMicros() {
+        return delayMicros;
+    }
+
+    /**
+     * @return Current fraction (0-1] of aggressors maximum limits.
+     */
+    public float getLevel() {
+        return level;
+    }
+
+    /**
+     * Adds an aggressor, its usage limit is managed by this protector from
+     * now on.
+     *
+     * @param watcher Aggressor watcher (should be started).
+     * @param maxUsageLimit Limit when victim is not suffering, null to
+     * unlimited.
+     */
+    public void addAggressor(CpuWatcher watcher, Float maxUsageLimit) {
+        Aggressor aggressor = new Aggressor(watcher, maxUsageLimit);
+        aggressor.apply(level);
+        aggressors.add(aggressor);
+    }
+
+    public void removeAggressor(CpuWatcher watcher) {
+        for (Aggressor aggressor : aggressors) {
+            if (aggressor.watcher == watcher) {
+                aggressors.remove(aggressor);
+                watcher.setUsageLimit(aggressor.maxUsageLimit);
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("SleepWhileInLoop")
+    public void run() {
+        // per thread counters, sums over changing thread sets would mix finished/new threads
+        IntLongMap previousDelays = new IntLongMap();
+        IntLongMap previousTimeslices = new IntLongMap();
+        IntLongMap currentDelays = new IntLongMap();
+        IntLongMap currentTimeslices = new IntLongMap();
+        IntLongMap swap;
+        boolean first = true;
+        long delay;
+        long timeslices;
+        long threadDelay;
+        long threadTimeslices;
+        int tid;
+        float localLevel;
+        try {
+            while (!isInterrupted()) {
+                delay = 0;
+                timeslices = 0;
+                String[] tids = new File(taskPath).list();
+                if (tids == null) {
+                    // victim finished
+                    break;
+                }
+                for (String task : tids) {
+                    try {
+                        schedstat.read(taskPath + task + "/schedstat");
+                    } catch (IOException ex) {
+                        // thread finished
+                        continue;
+                    }
+                    tid = Integer.parseInt(task);
+                    // cpu time (ns), run-queue delay (ns), timeslices
+                    threadDelay = schedstat.field(1);
+                    threadTimeslices = schedstat.field(2);
+                    currentDelays.put(tid, threadDelay);
+                    currentTimeslices.put(tid, threadTimeslices);
+                    // only threads present on both samples
+                    if (previousDelays.containsKey(tid)) {
+                        delay += threadDelay - previousDelays.get(tid, threadDelay);
+                        timeslices += threadTimeslices - previousTimeslices.get(tid, threadTimeslices);
+                    }
+                }
+
+                if (!first) {
+                    delayMicros = Math.max(delay, 0) / Math.max(timeslices, 1) / 1000L;
+
+                    localLevel = nextLevel(level, delayMicros, targetDelayMicros);
+                    if (localLevel != level) {
+                        level = localLevel;
+                        for (Aggressor aggressor : aggressors) {
+                            aggressor.apply(localLevel);
+                        }
+                    }
+                }
+                first = false;
+                swap = previousDelays;
+                previousDelays = currentDelays;
+                currentDelays = swap;
+                currentDelays.clear();
+                swap = previousTimeslices;
+                previousTimeslices = currentTimeslices;
+                currentTimeslices = swap;
+                currentTimeslices.clear();
+
+                Thread.sleep(periodMillis);
+            }
+        } catch (InterruptedException ex) {
+            // ignore interruptions errors
+            interrupt();
+        } finally {
+            // victim gone or protector stopped, release aggressors
+            for (Aggressor aggressor : aggressors) {
+                aggressor.apply(1f);
+            }
+        }
+    }
+
+    /**
+     * AIMD step: halves level while victim delay is above target, adds 5%
+     * back otherwise.
+     *
+     * @param level Current level.
+     * @param delayMicros Victim delay on last period.
+     * @param targetDelayMicros Target delay.
+     * @return Next level, between {@link #MIN_LEVEL} and 1.
+     */
+    static float nextLevel(float level, long delayMicros, long targetDelayMicros) {
+        if (delayMicros > targetDelayMicros) {
+            return Math.max(level * DECREASE_FACTOR, MIN_LEVEL);
+        }
+        return Math.min(level + INCREASE_STEP, 1f);
+    }
+
+    static final class Aggressor {
+
+        private final CpuWatcher watcher;
+        private final Float maxUsageLimit;
+
+        Aggressor(CpuWatcher watcher, Float maxUsageLimit) {
+            this.watcher = watcher;
+            this.maxUsageLimit = maxUsageLimit;
+        }
+
+        /**
+         * @param level Fraction of maximum limit.
+         * @return true if watcher limit was changed.
+         */
+        boolean apply(float level) {
+            Float limit;
+            if (level >= 1f) {
+                limit = maxUsageLimit;
+            } else {
+                // null means the entire system
+                limit = (maxUsageLimit == null ? 100f : maxUsageLimit) * level;
+            }
+            Float current = watcher.getUsageLimit();
+            // changing limit resets watcher baseline, only when really needed
+            if (limit == null ? current != null : !limit.equals(current)) {
+                watcher.setUsageLimit(limit);
+                return true;
+            }
+            return false;
+        }
+    }
+}
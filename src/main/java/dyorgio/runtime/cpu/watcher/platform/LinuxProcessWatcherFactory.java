@@ -0,0 +1,68 @@
+/** *****************************************************************************
+ * Copyright 2022 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************** */
+package dyorgio.runtime.cpu.watcher.platform;
+
+import dyorgio.runtime.cpu.watcher.AbstractPosixProcessWatcherFactory;
+import dyorgio.runtime.cpu.watcher.AbstractProcessWatcher;
+import dyorgio.runtime.cpu.watcher.LinuxProcessWatcher;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * Linux factory, uses /proc directly instead of JNA/OSHI to keep startup
+ * light.
+ *
+ * @author dyorgio
+ */
+public class LinuxProcessWatcherFactory extends AbstractPosixProcessWatcherFactory {
+
+    @Override
+    public AbstractProcessWatcher createWatcher(int pid) {
+        return new LinuxProcessWatcher(pid);
+    }
+
+    @Override
+    public int getCurrentPid() {
+        try {
+            return Integer.parseInt(new File("/proc/self").getCanonicalFile().getName());
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    @Override
+    public int getCpuCount() {
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader("/proc/stat"));
+            try {
+                int count = 0;
+                String line;
+                while ((line = reader.readLine()) != null && line.startsWith("cpu")) {
+                    if (line.length() > 3 && Character.isDigit(line.charAt(3))) {
+                        count++;
+                    }
+                }
+                return count > 0 ? count : super.getCpuCount();
+            } finally {
+                reader.close();
+            }
+        } catch (IOException ex) {
+            return super.getCpuCount();
+        }
+    }
+}
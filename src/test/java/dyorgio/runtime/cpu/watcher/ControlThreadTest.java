@@ -0,0 +1,112 @@
+/** *****************************************************************************
+ * Copyright 2022 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************** */
+package dyorgio.runtime.cpu.watcher;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import static org.hamcrest.MatcherAssert.assertThat;
+import org.hamcrest.Matchers;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author dyorgio
+ */
+public class ControlThreadTest {
+
+    @Test
+    public void testWakeupLateness() throws Throwable {
+        assumeTrue(!System.getProperty("os.name", "generic").toLowerCase().contains("win"));
+
+        Process burner = start("while :; do :; done");
+        try {
+            CpuWatcher cpuWatcher = new CpuWatcher(readPid(burner), 50f * CpuWatcher.getOneCoreOnePercent());
+            assertEquals(0, cpuWatcher.getMaxWakeupLatenessNanos());
+            assertEquals(0, cpuWatcher.getAverageWakeupLatenessNanos());
+            cpuWatcher.start();
+            try {
+                Thread.sleep(1000);
+                long max = cpuWatcher.getMaxWakeupLatenessNanos();
+                long average = cpuWatcher.getAverageWakeupLatenessNanos();
+                System.out.println("dyorgio.runtime.cpu.watcher.ControlThreadTest.testWakeupLateness(max/avg us):" + max / 1000 + "/" + average / 1000);
+                // sleeps never wake up early
+                assertThat(average, Matchers.greaterThan(0L));
+                assertThat(max, Matchers.greaterThanOrEqualTo(average));
+
+                cpuWatcher.setUsageLimit(null);
+                Thread.sleep(100);
+                // no more control sleeps without limits
+                cpuWatcher.resetWakeupLateness();
+                assertEquals(0, cpuWatcher.getMaxWakeupLatenessNanos());
+                assertEquals(0, cpuWatcher.getAverageWakeupLatenessNanos());
+            } finally {
+                cpuWatcher.interrupt();
+                cpuWatcher.join(3000);
+                cpuWatcher.getProcessWatcher().resume();
+            }
+        } finally {
+            burner.destroy();
+            burner.waitFor();
+        }
+    }
+
+    @Test
+    @SuppressWarnings("SleepWhileInLoop")
+    public void testControlThreadPolicyFallback() throws Throwable {
+        assumeTrue(!System.getProperty("os.name", "generic").toLowerCase().contains("win"));
+
+        Process target = start("exec sleep 60");
+        try {
+            CpuWatcher cpuWatcher = new CpuWatcher(readPid(target), 50f);
+            cpuWatcher.setControlThreadPolicy(ControlThreadPolicy.FIFO, 10);
+            cpuWatcher.start();
+            try {
+                // applied by control thread itself when started
+                long deadline = System.currentTimeMillis() + 3000;
+                while (cpuWatcher.getAppliedControlThreadPolicy() == null && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(25);
+                }
+                ControlThreadPolicy applied = cpuWatcher.getAppliedControlThreadPolicy();
+                System.out.println("dyorgio.runtime.cpu.watcher.ControlThreadTest.testControlThreadPolicyFallback():" + applied);
+                assertThat(cpuWatcher.isAlive(), Matchers.is(true));
+                if ("root".equals(System.getProperty("user.name")) && System.getProperty("os.name", "generic").toLowerCase().contains("nux")) {
+                    assertEquals(ControlThreadPolicy.FIFO, applied);
+                } else {
+                    // unprivileged, falls back without errors
+                    assertThat(applied, Matchers.anyOf(Matchers.nullValue(), Matchers.is(ControlThreadPolicy.NICE)));
+                }
+            } finally {
+                cpuWatcher.interrupt();
+                cpuWatcher.join(3000);
+                cpuWatcher.getProcessWatcher().resume();
+            }
+        } finally {
+            target.destroy();
+            target.waitFor();
+        }
+    }
+
+    private static Process start(String command) throws Exception {
+        return new ProcessBuilder("sh", "-c", "echo $$; " + command).start();
+    }
+
+    private static int readPid(Process process) throws Exception {
+        return Integer.parseInt(new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.US_ASCII)).readLine());
+    }
+}
@@ -0,0 +1,121 @@
+/** *****************************************************************************
+ * Copyright 2022 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************** */
+package dyorgio.runtime.cpu.watcher;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+/**
+ * Synthetic load generator used by {@link LimiterAccuracyTest},
+ * {@link IoLimitTest} and {@link ThreadCpuUsageTest}, prints own PID and
+ * burns cpu (or writes to a file at about 8MB/s) until killed.
+ *
+ * Usage: CpuBurn steady|bursty|multi|fork [THREADS] | write FILE
+ *
+ * @author dyorgio
+ */
+public class CpuBurn {
+
+    static final long BURST_BUSY_MILLIS = 50;
+    static final long BURST_IDLE_MILLIS = 50;
+
+    static final int WRITE_CHUNK = 64 * 1024;
+    static final long WRITE_PAUSE_MILLIS = 8;
+
+    public static void main(String[] args) throws Exception {
+        final String pattern = args[0];
+        if ("write".equals(pattern)) {
+            write(new File(args[1]));
+            return;
+        }
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+
+        for (int i = 0; i < threads; i++) {
+            Thread thread = new Thread("burn-" + i) {
+                @Override
+                public void run() {
+                    if ("bursty".equals(pattern)) {
+                        burst();
+                    } else {
+                        burn(Long.MAX_VALUE);
+                    }
+                }
+            };
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        if ("fork".equals(pattern)) {
+            Thread forker = new Thread("fork") {
+                @Override
+                public void run() {
+                    ProcessBuilder builder = new ProcessBuilder("true");
+                    while (true) {
+                        try {
+                            builder.start().waitFor();
+                        } catch (Exception ex) {
+                            throw new RuntimeException(ex);
+                        }
+                    }
+                }
+            };
+            forker.setDaemon(true);
+            forker.start();
+        }
+
+        System.out.println(new File("/proc/self").getCanonicalFile().getName());
+        System.out.flush();
+        Thread.sleep(Long.MAX_VALUE);
+    }
+
+    @SuppressWarnings("SleepWhileInLoop")
+    private static void write(File file) throws Exception {
+        byte[] chunk = new byte[WRITE_CHUNK];
+        // always appending, rewritten pages that are still dirty are not accounted as written bytes
+        FileOutputStream output = new FileOutputStream(file, true);
+        try {
+            System.out.println(new File("/proc/self").getCanonicalFile().getName());
+            System.out.flush();
+            while (true) {
+                output.write(chunk);
+                Thread.sleep(WRITE_PAUSE_MILLIS);
+            }
+        } finally {
+            output.close();
+        }
+    }
+
+    @SuppressWarnings("SleepWhileInLoop")
+    private static void burst() {
+        while (true) {
+            burn(BURST_BUSY_MILLIS);
+            try {
+                Thread.sleep(BURST_IDLE_MILLIS);
+            } catch (InterruptedException ex) {
+                return;
+            }
+        }
+    }
+
+    private static long burn(long millis) {
+        long end = millis == Long.MAX_VALUE ? Long.MAX_VALUE : System.nanoTime() + millis * 1000000L;
+        long count = 0;
+        while (System.nanoTime() < end) {
+            count = (long) Math.pow(count, count + 1);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,206 @@
+/** *****************************************************************************
+ * Copyright 2022 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************** */
+package dyorgio.runtime.cpu.watcher;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Collections;
+import static org.hamcrest.MatcherAssert.assertThat;
+import org.hamcrest.Matchers;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author dyorgio
+ */
+public class CpuWatcherServerTest {
+
+    @Test
+    public void testBatchCommands() throws Throwable {
+        assumeTrue(!System.getProperty("os.name", "generic").toLowerCase().contains("win"));
+
+        Process target = new ProcessBuilder("sh", "-c", "echo $$; exec sleep 60").start();
+        CpuWatcherServer server = new CpuWatcherServer(0);
+        server.start();
+        try {
+            int pid = Integer.parseInt(new BufferedReader(new InputStreamReader(target.getInputStream(), StandardCharsets.US_ASCII)).readLine());
+            try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+                OutputStream output = socket.getOutputStream();
+                // all commands in one round trip
+                output.write(("ADD " + pid + " 10\n"
+                        + "LIMIT " + pid + " 20\n"
+                        + "IOLIMIT " + pid + " null\n"
+                        + "LIST\n"
+                        + "USAGE " + pid + "\n"
+                        + "REMOVE " + pid + "\n"
+                        + "REMOVE " + pid + "\n"
+                        + "LIMIT " + pid + " -1\n"
+                        + "FOO 1\n").getBytes(StandardCharsets.US_ASCII));
+                output.flush();
+
+                BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+                assertEquals("OK", reader.readLine());
+                assertEquals("OK", reader.readLine());
+                assertEquals("OK", reader.readLine());
+                assertEquals("OK " + pid + ":20.0", reader.readLine());
+                assertThat(reader.readLine(), Matchers.startsWith("OK "));
+                assertEquals("OK", reader.readLine());
+                assertEquals("ERR Not watched: " + pid, reader.readLine());
+                assertEquals("ERR Not watched: " + pid, reader.readLine());
+                assertThat(reader.readLine(), Matchers.startsWith("ERR "));
+            }
+        } finally {
+            server.interrupt();
+            target.destroy();
+            target.waitFor();
+        }
+    }
+
+    @Test
+    public void testToken() throws Throwable {
+        assumeTrue(!System.getProperty("os.name", "generic").toLowerCase().contains("win"));
+
+        File file = File.createTempFile("cpu-watcher", ".token");
+        try {
+            Files.write(file.toPath(), Collections.singletonList("s3cr3t"), StandardCharsets.US_ASCII);
+            Files.setPosixFilePermissions(file.toPath(), PosixFilePermissions.fromString("rw-r--r--"));
+            try {
+                CpuWatcherServer.readToken(file);
+                fail("Token readable by others accepted");
+            } catch (IOException ex) {
+                // expected
+            }
+            Files.setPosixFilePermissions(file.toPath(), PosixFilePermissions.fromString("rw-------"));
+
+            CpuWatcherServer server = new CpuWatcherServer(0, CpuWatcherServer.readToken(file));
+            server.start();
+            try {
+                try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+                    socket.getOutputStream().write("wrong\nLIST\n".getBytes(StandardCharsets.US_ASCII));
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+                    assertEquals("ERR Unauthorized", reader.readLine());
+                    assertNull(reader.readLine());
+                }
+                try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+                    socket.getOutputStream().write("s3cr3t\nLIST\n".getBytes(StandardCharsets.US_ASCII));
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+                    assertEquals("OK", reader.readLine());
+                    assertEquals("OK", reader.readLine());
+                }
+            } finally {
+                server.interrupt();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testUsageOnNewConnection() throws Throwable {
+        assumeTrue(!System.getProperty("os.name", "generic").toLowerCase().contains("win"));
+
+        Process target = new ProcessBuilder("sh", "-c", "echo $$; while :; do :; done").start();
+        CpuWatcherServer server = new CpuWatcherServer(0);
+        server.start();
+        try {
+            int pid = Integer.parseInt(new BufferedReader(new InputStreamReader(target.getInputStream(), StandardCharsets.US_ASCII)).readLine());
+            assertEquals("OK", command(server, "ADD " + pid));
+            Thread.sleep(500);
+            // baseline kept by server, not by connection
+            String usage = command(server, "USAGE " + pid);
+            assertThat(usage, Matchers.startsWith("OK "));
+            assertThat(Float.valueOf(usage.substring(3)), Matchers.greaterThan(0f));
+        } finally {
+            server.interrupt();
+            target.destroy();
+            target.waitFor();
+        }
+    }
+
+    @Test
+    public void testStats() throws Throwable {
+        assumeTrue(!System.getProperty("os.name", "generic").toLowerCase().contains("win"));
+
+        Process target = new ProcessBuilder("sh", "-c", "echo $$; while :; do :; done").start();
+        CpuWatcherServer server = new CpuWatcherServer(0);
+        server.start();
+        try {
+            int pid = Integer.parseInt(new BufferedReader(new InputStreamReader(target.getInputStream(), StandardCharsets.US_ASCII)).readLine());
+            assertEquals("OK", command(server, "ADD " + pid + " " + 25f * CpuWatcher.getOneCoreOnePercent()));
+            Thread.sleep(1000);
+            String stats = command(server, "STATS " + pid);
+            assertThat(stats, Matchers.startsWith("OK "));
+            // suspensions, max and average wakeup lateness (micros)
+            String[] fields = stats.substring(3).split(" ");
+            assertEquals(3, fields.length);
+            assertThat(Long.valueOf(fields[0]), Matchers.greaterThan(0L));
+            assertThat(Long.valueOf(fields[1]), Matchers.greaterThanOrEqualTo(Long.valueOf(fields[2])));
+            assertThat(Long.valueOf(fields[2]), Matchers.greaterThanOrEqualTo(0L));
+            assertEquals("OK", command(server, "REMOVE " + pid));
+        } finally {
+            server.interrupt();
+            target.destroy();
+            target.waitFor();
+        }
+    }
+
+    @Test
+    public void testDeadWatcher() throws Throwable {
+        assumeTrue(new File("/proc/self").exists());
+
+        Process target = new ProcessBuilder("sh", "-c", "echo $$; exec sleep 60").start();
+        CpuWatcherServer server = new CpuWatcherServer(0);
+        server.start();
+        try {
+            int pid = Integer.parseInt(new BufferedReader(new InputStreamReader(target.getInputStream(), StandardCharsets.US_ASCII)).readLine());
+            assertEquals("OK", command(server, "ADD " + pid + " 50"));
+            assertEquals("OK " + pid + ":50.0", command(server, "LIST"));
+
+            target.destroy();
+            target.waitFor();
+            // watcher dies once target is gone
+            long deadline = System.currentTimeMillis() + 5000;
+            while (server.getWatcher(pid) != null && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertNull(server.getWatcher(pid));
+            assertEquals("OK", command(server, "LIST"));
+            assertEquals("ERR Not watched: " + pid, command(server, "LIMIT " + pid + " 20"));
+        } finally {
+            server.interrupt();
+            target.destroy();
+            target.waitFor();
+        }
+    }
+
+    private static String command(CpuWatcherServer server, String command) throws IOException {
+        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            socket.getOutputStream().write((command + "\n").getBytes(StandardCharsets.US_ASCII));
+            return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII)).readLine();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/** *****************************************************************************
+ * Copyright 2022 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************** */
+package dyorgio.runtime.cpu.watcher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author dyorgio
+ */
+public class IntLongMapTest {
+
+    @Test
+    public void testPutGetAndGrow() {
+        IntLongMap map = new IntLongMap(4);
+        for (int key = 1; key <= 1000; key++) {
+            map.put(key * 31, key);
+        }
+        assertEquals(1000, map.size());
+        for (int key = 1; key <= 1000; key++) {
+            assertEquals(key, map.get(key * 31, -1));
+        }
+        assertEquals(-1, map.get(7, -1));
+
+        map.put(31, 42);
+        assertEquals(1000, map.size());
+        assertEquals(42, map.get(31, -1));
+    }
+
+    @Test
+    public void testClear() {
+        IntLongMap map = new IntLongMap();
+        map.put(10, 1);
+        map.clear();
+        assertEquals(0, map.size());
+        assertFalse(map.containsKey(10));
+        map.put(10, 2);
+        assertTrue(map.containsKey(10));
+        assertEquals(2, map.get(10, -1));
+    }
+
+    @Test
+    public void testReservedKeyIsMissing() {
+        IntLongMap map = new IntLongMap();
+        map.put(10, 1);
+        assertEquals(-1, map.get(0, -1));
+        assertFalse(map.containsKey(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReservedKey() {
+        new IntLongMap().put(0, 1);
+    }
+}
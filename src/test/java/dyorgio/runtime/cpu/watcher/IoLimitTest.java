@@ -0,0 +1,120 @@
+/** *****************************************************************************
+ * Copyright 2022 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************** */
+package dyorgio.runtime.cpu.watcher;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import static org.hamcrest.MatcherAssert.assertThat;
+import org.hamcrest.Matchers;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assume.assumeTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author dyorgio
+ */
+public class IoLimitTest {
+
+    private static final float IO_LIMIT = 1024f * 1024f;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder(new File(System.getProperty("user.dir"), "target"));
+
+    @Test
+    public void testIoLimit() throws Throwable {
+        assumeTrue(new File("/proc/self/io").exists());
+
+        Process writer = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-Xmx32m", "-cp", System.getProperty("java.class.path"), CpuBurn.class.getName(),
+                "write", new File(folder.getRoot(), "io-limit.bin").getAbsolutePath())
+                .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        try {
+            CpuWatcher cpuWatcher = new CpuWatcher(readPid(writer), null, IO_LIMIT);
+            cpuWatcher.start();
+            try {
+                Thread.sleep(1000);
+                float ioUsage = averageIoUsage(cpuWatcher);
+                System.out.println("dyorgio.runtime.cpu.watcher.IoLimitTest.testIoLimit(B/s):" + ioUsage);
+                assertThat("I/O usage needs to be greater than 50% of limit.", ioUsage, Matchers.greaterThan(IO_LIMIT * 0.5f));
+                assertThat("I/O usage needs to be less than 150% of limit.", ioUsage, Matchers.lessThan(IO_LIMIT * 1.5f));
+            } finally {
+                cpuWatcher.interrupt();
+                cpuWatcher.join(3000);
+                cpuWatcher.getProcessWatcher().resume();
+            }
+        } finally {
+            writer.destroy();
+            writer.waitFor();
+        }
+    }
+
+    @Test
+    public void testCpuOnlyLimitUnaffected() throws Throwable {
+        assumeTrue(new File("/proc/self/io").exists());
+
+        Process burner = start("exec sh -c 'while :; do :; done'");
+        try {
+            CpuWatcher cpuWatcher = new CpuWatcher(readPid(burner), 50f * CpuWatcher.getOneCoreOnePercent());
+            assertNull(cpuWatcher.getIoLimit());
+            cpuWatcher.start();
+            try {
+                Thread.sleep(1000);
+                float usagePercent = 0;
+                cpuWatcher.getCpuUsage();
+                for (int i = 0; i < 50; i++) {
+                    Thread.sleep(100);
+                    usagePercent += cpuWatcher.getCpuUsage();
+                }
+                usagePercent = usagePercent / 50 / CpuWatcher.getOneCoreOnePercent();
+                System.out.println("dyorgio.runtime.cpu.watcher.IoLimitTest.testCpuOnlyLimitUnaffected(%):" + usagePercent);
+                assertThat("Cpu usage needs to be greater than 35%.", usagePercent, Matchers.greaterThan(35f));
+                assertThat("Cpu usage needs to be less than 55%.", usagePercent, Matchers.lessThan(55f));
+            } finally {
+                cpuWatcher.interrupt();
+                cpuWatcher.join(3000);
+                cpuWatcher.getProcessWatcher().resume();
+            }
+        } finally {
+            burner.destroy();
+            burner.waitFor();
+        }
+    }
+
+    @SuppressWarnings("SleepWhileInLoop")
+    private static float averageIoUsage(CpuWatcher cpuWatcher) throws InterruptedException {
+        float total = 0;
+        cpuWatcher.getIoUsage();
+        for (int i = 0; i < 50; i++) {
+            Thread.sleep(100);
+            total += cpuWatcher.getIoUsage();
+        }
+        return total / 50;
+    }
+
+    private static Process start(String command) throws Exception {
+        return new ProcessBuilder("sh", "-c", "echo $$; " + command).start();
+    }
+
+    private static int readPid(Process process) throws Exception {
+        return Integer.parseInt(new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.US_ASCII)).readLine());
+    }
+}
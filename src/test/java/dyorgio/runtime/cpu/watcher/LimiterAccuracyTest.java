@@ -0,0 +1,208 @@
+/** *****************************************************************************
+ * Copyright 2022 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************** */
+package dyorgio.runtime.cpu.watcher;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+import org.junit.Test;
+
+/**
+ * Limiter accuracy and overhead regression suite. Runs synthetic loads
+ * ({@link CpuBurn}) under a range of limits and core counts (load pinned to
+ * 1, 2 and all cores by taskset), records achieved versus target
+ * error, overshoot percentiles, signals per second and watcher cpu cost, and
+ * writes a JSON report (target/limiter-accuracy.json).<br>
+ * Enabled only with benchmark profile (mvn test -Pbenchmark), tolerances can
+ * be changed by system properties cpu.watcher.accuracy.maxError (%),
+ * cpu.watcher.accuracy.maxOvershootP95 (ratio) and
+ * cpu.watcher.accuracy.maxWatcherCpu (% of one core).
+ *
+ * @author dyorgio
+ */
+public class LimiterAccuracyTest {
+
+    private static final long WARMUP_MILLIS = 1000;
+    private static final long MEASURE_MILLIS = 5000;
+    private static final long WINDOW_MILLIS = 100;
+
+    private static final float MAX_ERROR = Float.parseFloat(System.getProperty("cpu.watcher.accuracy.maxError", "15"));
+    private static final float MAX_OVERSHOOT_P95 = Float.parseFloat(System.getProperty("cpu.watcher.accuracy.maxOvershootP95", "2.5"));
+    private static final float MAX_WATCHER_CPU = Float.parseFloat(System.getProperty("cpu.watcher.accuracy.maxWatcherCpu", "5"));
+
+    @Test
+    public void testAccuracy() throws Throwable {
+        assumeTrue(Boolean.getBoolean("cpu.watcher.benchmark"));
+        // CpuBurn PID comes from /proc/self
+        assumeTrue(new File("/proc/self").exists());
+
+        int cpuCount = CpuWatcher.getCpuCount();
+        boolean taskset = new File("/usr/bin/taskset").exists() || new File("/bin/taskset").exists();
+
+        Set<Integer> coreCounts = new TreeSet<>();
+        coreCounts.add(cpuCount);
+        if (taskset) {
+            coreCounts.add(1);
+            coreCounts.add(Math.min(2, cpuCount));
+        } else {
+            System.out.println("dyorgio.runtime.cpu.watcher.LimiterAccuracyTest.testAccuracy(): taskset not found, running on all cores only.");
+        }
+
+        List<Result> results = new ArrayList<>();
+        for (int cores : coreCounts) {
+            // limits in cores, always below load demand
+            for (float fraction : new float[]{0.25f, 0.5f}) {
+                results.add(run("steady", cores, 1, 1, fraction));
+                results.add(run("bursty", cores, 1, 0.5f, fraction * 0.5f));
+                results.add(run("fork", cores, 1, 1, fraction));
+                results.add(run("multi", cores, cores, cores, fraction * cores));
+            }
+            if (cores > 1) {
+                results.add(run("multi", cores, cores, cores, cores - 0.5f));
+            }
+        }
+
+        File report = new File(System.getProperty("cpu.watcher.report.dir", "target"), "limiter-accuracy.json");
+        report.getParentFile().mkdirs();
+        boolean passed = true;
+        try (Writer writer = Files.newBufferedWriter(report.toPath(), StandardCharsets.UTF_8)) {
+            writer.write(String.format(Locale.ROOT,
+                    "{\"cpuCount\":%d,\"tolerances\":{\"maxError\":%.2f,\"maxOvershootP95\":%.2f,\"maxWatcherCpu\":%.2f},\"results\":[",
+                    cpuCount, MAX_ERROR, MAX_OVERSHOOT_P95, MAX_WATCHER_CPU));
+            for (int i = 0; i < results.size(); i++) {
+                Result result = results.get(i);
+                passed &= result.passed();
+                writer.write((i > 0 ? "," : "") + result.toJson());
+                System.out.println("dyorgio.runtime.cpu.watcher.LimiterAccuracyTest.testAccuracy():" + result.toJson());
+            }
+            writer.write("]}\n");
+        }
+        assertTrue("Limiter accuracy out of tolerance, see " + report, passed);
+    }
+
+    @SuppressWarnings("SleepWhileInLoop")
+    private static Result run(String pattern, int cores, int threads, float demandCores, float limitCores) throws Exception {
+        List<String> command = new ArrayList<>();
+        if (cores < CpuWatcher.getCpuCount()) {
+            // pin load to first cores
+            command.addAll(Arrays.asList("taskset", "-c", "0-" + (cores - 1)));
+        }
+        command.addAll(Arrays.asList(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-Xmx32m", "-cp", System.getProperty("java.class.path"), CpuBurn.class.getName(), pattern, String.valueOf(threads)));
+        Process load = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        try {
+            int pid = Integer.parseInt(new BufferedReader(new InputStreamReader(load.getInputStream(), StandardCharsets.US_ASCII)).readLine());
+            float onePercent = CpuWatcher.getOneCoreOnePercent();
+            CpuWatcher cpuWatcher = new CpuWatcher(pid, limitCores * 100f * onePercent);
+            cpuWatcher.start();
+            try {
+                Thread.sleep(WARMUP_MILLIS);
+                ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+                long watcherCpuStart = threadBean.getThreadCpuTime(cpuWatcher.getId());
+                long suspendsStart = cpuWatcher.getProcessWatcher().getSuspendCount();
+                long start = System.nanoTime();
+
+                int count = (int) (MEASURE_MILLIS / WINDOW_MILLIS);
+                float[] usages = new float[count];
+                cpuWatcher.getCpuUsage();
+                for (int i = 0; i < count; i++) {
+                    Thread.sleep(WINDOW_MILLIS);
+                    // per core percentage
+                    usages[i] = cpuWatcher.getCpuUsage() / onePercent;
+                }
+
+                double elapsed = (System.nanoTime() - start) / 1e9d;
+                Result result = new Result(pattern, cores, threads, limitCores * 100f, Math.min(limitCores, demandCores) * 100f, usages);
+                result.suspendsPerSecond = (cpuWatcher.getProcessWatcher().getSuspendCount() - suspendsStart) / elapsed;
+                result.watcherCpu = (threadBean.getThreadCpuTime(cpuWatcher.getId()) - watcherCpuStart) / (elapsed * 1e7d);
+                return result;
+            } finally {
+                cpuWatcher.interrupt();
+                cpuWatcher.join(3000);
+                cpuWatcher.getProcessWatcher().resume();
+            }
+        } finally {
+            load.destroyForcibly().waitFor();
+        }
+    }
+
+    private static final class Result {
+
+        private final String pattern;
+        private final int cores;
+        private final int threads;
+        private final float limit;
+        private final float target;
+        private final float achieved;
+        private final float error;
+        private final float[] overshoot;
+        private double suspendsPerSecond;
+        private double watcherCpu;
+
+        Result(String pattern, int cores, int threads, float limit, float target, float[] usages) {
+            this.pattern = pattern;
+            this.cores = cores;
+            this.threads = threads;
+            this.limit = limit;
+            this.target = target;
+            float total = 0;
+            for (float usage : usages) {
+                total += usage;
+            }
+            achieved = total / usages.length;
+            error = (achieved - target) / target * 100f;
+            float[] sorted = usages.clone();
+            Arrays.sort(sorted);
+            overshoot = new float[]{
+                percentile(sorted, 50) / target,
+                percentile(sorted, 95) / target,
+                percentile(sorted, 99) / target};
+        }
+
+        boolean passed() {
+            return Math.abs(error) <= MAX_ERROR && overshoot[1] <= MAX_OVERSHOOT_P95 && watcherCpu <= MAX_WATCHER_CPU;
+        }
+
+        String toJson() {
+            return String.format(Locale.ROOT,
+                    "{\"pattern\":\"%s\",\"cores\":%d,\"threads\":%d,\"limit\":%.2f,\"target\":%.2f,\"achieved\":%.2f,\"error\":%.2f,"
+                    + "\"overshootP50\":%.3f,\"overshootP95\":%.3f,\"overshootP99\":%.3f,"
+                    + "\"signalsPerSecond\":%.2f,\"watcherCpu\":%.3f,\"passed\":%b}",
+                    pattern, cores, threads, limit, target, achieved, error,
+                    overshoot[0], overshoot[1], overshoot[2],
+                    // each suspension is a SIGSTOP/SIGCONT pair
+                    suspendsPerSecond * 2, watcherCpu, passed());
+        }
+
+        private static float percentile(float[] sorted, int percentile) {
+            return sorted[Math.min(sorted.length - 1, (int) Math.ceil(sorted.length * percentile / 100d) - 1)];
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/** *****************************************************************************
+ * Copyright 2022 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************** */
+package dyorgio.runtime.cpu.watcher;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import static org.hamcrest.MatcherAssert.assertThat;
+import org.hamcrest.Matchers;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assume.assumeTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author dyorgio
+ */
+public class LimiterCheckpointTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRestoreAfterReopen() throws Throwable {
+        File file = folder.newFile();
+        LimiterCheckpoint checkpoint = new LimiterCheckpoint(file, 8);
+        checkpoint.save(100, 555L, new CpuTimeSnapshot(1000L, 2000L), 6.25f, 5.5f);
+        checkpoint.save(200, 777L, new CpuTimeSnapshot(1L, 2L), null, 1f);
+        checkpoint.close();
+
+        checkpoint = new LimiterCheckpoint(file, 8);
+        try {
+            CpuTimeSnapshot restored = checkpoint.restore(100, 555L, 6.25f);
+            assertNotNull(restored);
+            assertEquals(1000d, restored.getTotal(), 0);
+            assertEquals(2000d, restored.getTimestamp(), 0);
+            assertEquals(5.5f, checkpoint.getLastUsage(100), 0);
+            assertNotNull(checkpoint.restore(200, 777L, null));
+        } finally {
+            checkpoint.close();
+        }
+    }
+
+    @Test
+    public void testIdentityAndLimitMismatch() throws Throwable {
+        LimiterCheckpoint checkpoint = new LimiterCheckpoint(folder.newFile(), 8);
+        try {
+            checkpoint.save(100, 555L, new CpuTimeSnapshot(1000L, 2000L), 6.25f, 5.5f);
+            // same pid, another process instance
+            assertNull(checkpoint.restore(100, 556L, 6.25f));
+            // limit changed
+            assertNull(checkpoint.restore(100, 555L, 12.5f));
+            assertNull(checkpoint.restore(100, 555L, null));
+            assertNull(checkpoint.restore(101, 555L, 6.25f));
+
+            checkpoint.remove(100);
+            assertNull(checkpoint.restore(100, 555L, 6.25f));
+        } finally {
+            checkpoint.close();
+        }
+    }
+
+    @Test
+    public void testBootMismatch() throws Throwable {
+        File file = folder.newFile();
+        LimiterCheckpoint checkpoint = new LimiterCheckpoint(file, 8, new UUID(1, 2));
+        checkpoint.save(100, 555L, new CpuTimeSnapshot(1000L, 2000L), 6.25f, 5.5f);
+        checkpoint.close();
+
+        // same pid and start time after a reboot, another process
+        checkpoint = new LimiterCheckpoint(file, 8, new UUID(1, 3));
+        try {
+            assertNull(checkpoint.restore(100, 555L, 6.25f));
+        } finally {
+            checkpoint.close();
+        }
+
+        checkpoint = new LimiterCheckpoint(file, 8, new UUID(1, 2));
+        try {
+            assertNotNull(checkpoint.restore(100, 555L, 6.25f));
+        } finally {
+            checkpoint.close();
+        }
+    }
+
+    @Test
+    public void testStaleSlot() throws Throwable {
+        LimiterCheckpoint checkpoint = new LimiterCheckpoint(folder.newFile(), 8);
+        try {
+            checkpoint.setMaxAge(50);
+            checkpoint.save(100, 555L, new CpuTimeSnapshot(1000L, 2000L), 6.25f, 5.5f);
+            assertNotNull(checkpoint.restore(100, 555L, 6.25f));
+            Thread.sleep(100);
+            // usage while not watched is unknown
+            assertNull(checkpoint.restore(100, 555L, 6.25f));
+            checkpoint.save(100, 555L, new CpuTimeSnapshot(1000L, 2000L), 6.25f, 5.5f);
+            assertNotNull(checkpoint.restore(100, 555L, 6.25f));
+        } finally {
+            checkpoint.close();
+        }
+    }
+
+    @Test
+    public void testWatcherRestart() throws Throwable {
+        assumeTrue(new File("/proc/self/stat").exists());
+
+        float limit = 10f * CpuWatcher.getOneCoreOnePercent();
+        LimiterCheckpoint checkpoint = new LimiterCheckpoint(folder.newFile(), 8);
+        Process burner = new ProcessBuilder("sh", "-c", "echo $$; while :; do :; done").start();
+        try {
+            int pid = Integer.parseInt(new BufferedReader(new InputStreamReader(burner.getInputStream(), StandardCharsets.US_ASCII)).readLine());
+            CpuWatcher cpuWatcher = startWatcher(pid, limit, checkpoint);
+            Thread.sleep(2500);
+            stopWatcher(cpuWatcher);
+            long startTime = cpuWatcher.getProcessWatcher().getStartTime();
+
+            // unlimited while no watcher is running, debt is capped on restore
+            Thread.sleep(1500);
+            cpuWatcher = startWatcher(pid, limit, checkpoint);
+            try {
+                Thread.sleep(1500);
+                float usagePercent = 0;
+                cpuWatcher.getCpuUsage();
+                for (int i = 0; i < 20; i++) {
+                    Thread.sleep(100);
+                    usagePercent += cpuWatcher.getCpuUsage();
+                }
+                usagePercent = usagePercent / 20 / CpuWatcher.getOneCoreOnePercent();
+                System.out.println("dyorgio.runtime.cpu.watcher.LimiterCheckpointTest.testWatcherRestart(%):" + usagePercent);
+                assertThat("Cpu usage needs to be greater than 2%.", usagePercent, Matchers.greaterThan(2f));
+                assertThat("Cpu usage needs to be less than 25%.", usagePercent, Matchers.lessThan(25f));
+            } finally {
+                stopWatcher(cpuWatcher);
+            }
+            assertNotNull(checkpoint.restore(pid, startTime, limit));
+
+            // too old to be trusted
+            Thread.sleep(checkpoint.getMaxAge() + 500);
+            assertNull(checkpoint.restore(pid, startTime, limit));
+        } finally {
+            burner.destroy();
+            burner.waitFor();
+            checkpoint.close();
+        }
+    }
+
+    private static CpuWatcher startWatcher(int pid, float limit, LimiterCheckpoint checkpoint) {
+        CpuWatcher cpuWatcher = new CpuWatcher(pid, limit);
+        cpuWatcher.setCheckpoint(checkpoint);
+        cpuWatcher.start();
+        return cpuWatcher;
+    }
+
+    private static void stopWatcher(CpuWatcher cpuWatcher) throws InterruptedException {
+        cpuWatcher.interrupt();
+        cpuWatcher.join(3000);
+        cpuWatcher.getProcessWatcher().resume();
+    }
+
+    @Test
+    public void testSlotReuse() throws Throwable {
+        LimiterCheckpoint checkpoint = new LimiterCheckpoint(folder.newFile(), 2);
+        try {
+            checkpoint.save(1, 1L, new CpuTimeSnapshot(1L, 1L), 1f, 1f);
+            Thread.sleep(5);
+            checkpoint.save(2, 2L, new CpuTimeSnapshot(2L, 2L), 2f, 2f);
+            Thread.sleep(5);
+            // full, replaces least recently saved
+            checkpoint.save(3, 3L, new CpuTimeSnapshot(3L, 3L), 3f, 3f);
+            assertNull(checkpoint.restore(1, 1L, 1f));
+            assertNotNull(checkpoint.restore(2, 2L, 2f));
+            assertNotNull(checkpoint.restore(3, 3L, 3f));
+        } finally {
+            checkpoint.close();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/** *****************************************************************************
+ * Copyright 2022 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************** */
+package dyorgio.runtime.cpu.watcher;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import static org.hamcrest.MatcherAssert.assertThat;
+import org.hamcrest.Matchers;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author dyorgio
+ */
+public class SoftThrottleTest {
+
+    private static final int SCHED_OTHER = 0;
+    private static final int SCHED_FIFO = 1;
+    private static final int SCHED_BATCH = 3;
+    private static final int SCHED_IDLE = 5;
+
+    @Test
+    public void testDeprioritizeAndRestore() throws Throwable {
+        assumeTrue(new File("/proc/self/stat").exists());
+
+        Process burner = start("while :; do :; done");
+        try {
+            int pid = readPid(burner);
+            LinuxProcessWatcher watcher = new LinuxProcessWatcher(pid);
+            try {
+                assertDeprioritized(watcher, pid, SoftThrottleMode.IDLE, SCHED_IDLE, 0);
+                assertDeprioritized(watcher, pid, SoftThrottleMode.BATCH, SCHED_BATCH, 0);
+                assertDeprioritized(watcher, pid, SoftThrottleMode.NICE, SCHED_OTHER, 19);
+            } finally {
+                watcher.restorePriority();
+            }
+        } finally {
+            burner.destroy();
+            burner.waitFor();
+        }
+    }
+
+    @Test
+    public void testRealTimeRestore() throws Throwable {
+        assumeTrue(new File("/proc/self/stat").exists());
+        // SCHED_FIFO needs privileges
+        assumeTrue("root".equals(System.getProperty("user.name")));
+        assumeTrue(new File("/usr/bin/chrt").exists() || new File("/bin/chrt").exists());
+
+        Process target = new ProcessBuilder("chrt", "-f", "10", "sh", "-c", "echo $$; exec sleep 60").start();
+        try {
+            int pid = readPid(target);
+            assertEquals(SCHED_FIFO, stat(pid, 41));
+            LinuxProcessWatcher watcher = new LinuxProcessWatcher(pid);
+            assertTrue(watcher.deprioritize(SoftThrottleMode.IDLE));
+            assertEquals(SCHED_IDLE, stat(pid, 41));
+            // already lowered, originals are kept
+            assertTrue(watcher.deprioritize(SoftThrottleMode.BATCH));
+            assertEquals(SCHED_IDLE, stat(pid, 41));
+
+            watcher.restorePriority();
+            assertFalse(watcher.isDeprioritized());
+            assertEquals(SCHED_FIFO, stat(pid, 41));
+            // rt_priority
+            assertEquals(10, stat(pid, 40));
+        } finally {
+            target.destroy();
+            target.waitFor();
+        }
+    }
+
+    @Test
+    @SuppressWarnings("SleepWhileInLoop")
+    public void testSuspendOnlyAfterGrace() throws Throwable {
+        assumeTrue(new File("/proc/self/stat").exists());
+
+        Process burner = start("while :; do :; done");
+        try {
+            int pid = readPid(burner);
+            CpuWatcher cpuWatcher = new CpuWatcher(pid, 10f * CpuWatcher.getOneCoreOnePercent());
+            cpuWatcher.setSoftThrottle(SoftThrottleMode.NICE, 1500);
+            cpuWatcher.start();
+            try {
+                Thread.sleep(500);
+                // inside grace window, only lowered priority
+                assertTrue(cpuWatcher.getProcessWatcher().isDeprioritized());
+                assertEquals(19, stat(pid, 19));
+                assertEquals(0, cpuWatcher.getProcessWatcher().getSuspendCount());
+
+                // a lowest priority burner still exceeds limit on an idle system
+                Thread.sleep(2000);
+                assertThat(cpuWatcher.getProcessWatcher().getSuspendCount(), Matchers.greaterThan(0L));
+
+                // limit removal restores priority
+                cpuWatcher.setUsageLimit(null);
+                long deadline = System.currentTimeMillis() + 3000;
+                while (cpuWatcher.getProcessWatcher().isDeprioritized() && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(25);
+                }
+                assertFalse(cpuWatcher.getProcessWatcher().isDeprioritized());
+                assertEquals(0, stat(pid, 19));
+                assertEquals(SCHED_OTHER, stat(pid, 41));
+            } finally {
+                cpuWatcher.interrupt();
+                cpuWatcher.join(3000);
+                cpuWatcher.getProcessWatcher().resume();
+            }
+        } finally {
+            burner.destroy();
+            burner.waitFor();
+        }
+    }
+
+    private static void assertDeprioritized(LinuxProcessWatcher watcher, int pid, SoftThrottleMode mode, int policy, int nice) throws Exception {
+        assertTrue(watcher.deprioritize(mode));
+        assertTrue(watcher.isDeprioritized());
+        assertEquals(policy, stat(pid, 41));
+        assertEquals(nice, stat(pid, 19));
+
+        watcher.restorePriority();
+        assertFalse(watcher.isDeprioritized());
+        assertEquals(SCHED_OTHER, stat(pid, 41));
+        assertEquals(0, stat(pid, 19));
+    }
+
+    private static long stat(int pid, int field) throws Exception {
+        ProcFile stat = new ProcFile("/proc/" + pid + "/stat");
+        try {
+            stat.read();
+            return stat.statField(field);
+        } finally {
+            stat.close();
+        }
+    }
+
+    private static Process start(String command) throws Exception {
+        return new ProcessBuilder("sh", "-c", "echo $$; " + command).start();
+    }
+
+    private static int readPid(Process process) throws Exception {
+        return Integer.parseInt(new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.US_ASCII)).readLine());
+    }
+}
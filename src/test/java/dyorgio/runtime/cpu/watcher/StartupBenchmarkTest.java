@@ -0,0 +1,106 @@
+/** *****************************************************************************
+ * Copyright 2022 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************** */
+package dyorgio.runtime.cpu.watcher;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import static org.hamcrest.MatcherAssert.assertThat;
+import org.hamcrest.Matchers;
+import static org.junit.Assume.assumeTrue;
+import org.junit.Test;
+
+/**
+ * Measures standalone app startup: time to first cpu usage sample and RSS.
+ * Enabled only with benchmark profile (mvn test -Pbenchmark).
+ *
+ * @author dyorgio
+ */
+public class StartupBenchmarkTest {
+
+    private static final int RUNS = 5;
+
+    @Test
+    public void testStartup() throws Throwable {
+        assumeTrue(Boolean.getBoolean("cpu.watcher.benchmark"));
+        assumeTrue(new File("/proc/self/status").exists());
+
+        Process target = new ProcessBuilder("sh", "-c", "echo $$; exec sleep 300").start();
+        try {
+            int targetPid = Integer.parseInt(readLine(target));
+
+            long[] firstSampleMillis = new long[RUNS];
+            long[] rssKb = new long[RUNS];
+            for (int i = 0; i < RUNS; i++) {
+                long start = System.nanoTime();
+                Process watcher = new ProcessBuilder("sh", "-c", "echo $$; exec \"$0\" -cp \"$1\" " + CpuWatcher.class.getName() + " $2 50",
+                        Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                        System.getProperty("java.class.path"),
+                        String.valueOf(targetPid)).redirectErrorStream(true).start();
+                try {
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(watcher.getInputStream(), StandardCharsets.US_ASCII));
+                    int watcherPid = Integer.parseInt(reader.readLine());
+                    // main prints first usage sample right after watcher start
+                    String line;
+                    while ((line = reader.readLine()) != null && !isNumber(line)) {
+                        // skip logging output
+                    }
+                    firstSampleMillis[i] = (System.nanoTime() - start) / 1000000L;
+                    rssKb[i] = readRssKb(watcherPid);
+                } finally {
+                    watcher.destroy();
+                    watcher.waitFor();
+                }
+            }
+            Arrays.sort(firstSampleMillis);
+            Arrays.sort(rssKb);
+            System.out.println("dyorgio.runtime.cpu.watcher.StartupBenchmarkTest.testStartup(): time-to-first-sample(ms) median:" + firstSampleMillis[RUNS / 2]
+                    + ", min:" + firstSampleMillis[0] + ", max:" + firstSampleMillis[RUNS - 1]
+                    + ", RSS(kB) median:" + rssKb[RUNS / 2]);
+            assertThat("Watcher needs to produce a sample.", firstSampleMillis[RUNS / 2], Matchers.greaterThan(0L));
+        } finally {
+            target.destroy();
+            target.waitFor();
+        }
+    }
+
+    private static String readLine(Process process) throws IOException {
+        return new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.US_ASCII)).readLine();
+    }
+
+    private static boolean isNumber(String line) {
+        try {
+            Float.parseFloat(line);
+            return true;
+        } catch (NumberFormatException ex) {
+            return false;
+        }
+    }
+
+    private static long readRssKb(int pid) throws IOException {
+        for (String line : Files.readAllLines(Paths.get("/proc/" + pid + "/status"), StandardCharsets.US_ASCII)) {
+            if (line.startsWith("VmRSS:")) {
+                return Long.parseLong(line.substring(6).trim().split("\\s+")[0]);
+            }
+        }
+        return -1;
+    }
+}
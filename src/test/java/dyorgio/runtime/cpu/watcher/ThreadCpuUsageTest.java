@@ -0,0 +1,70 @@
+/** *****************************************************************************
+ * Copyright 2022 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************** */
+package dyorgio.runtime.cpu.watcher;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.List;
+import static org.hamcrest.MatcherAssert.assertThat;
+import org.hamcrest.Matchers;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assume.assumeTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author dyorgio
+ */
+public class ThreadCpuUsageTest {
+
+    @Test
+    public void testHottestThreadFirst() throws Throwable {
+        assumeTrue(new File("/proc/self").exists());
+
+        // one busy thread (burn-0), all others idle
+        Process load = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-Xmx32m", "-cp", System.getProperty("java.class.path"), CpuBurn.class.getName(), "steady", "1")
+                .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        try {
+            int pid = Integer.parseInt(new BufferedReader(new InputStreamReader(load.getInputStream(), StandardCharsets.US_ASCII)).readLine());
+            CpuWatcher cpuWatcher = new CpuWatcher(pid, null);
+            cpuWatcher.getThreadCpuUsages();
+            Thread.sleep(1000);
+            List<ThreadCpuUsage> usages = cpuWatcher.getThreadCpuUsages();
+            System.out.println("dyorgio.runtime.cpu.watcher.ThreadCpuUsageTest.testHottestThreadFirst():" + usages.get(0));
+
+            assertThat("Process needs to have many threads.", usages.size(), Matchers.greaterThan(1));
+            for (ThreadCpuUsage usage : usages) {
+                assertThat(usage.getTid(), Matchers.greaterThan(0));
+                assertNotNull(usage.getName());
+            }
+            for (int i = 1; i < usages.size(); i++) {
+                assertThat("Usages need to be sorted, hottest first.", usages.get(i).getUsage(), Matchers.lessThanOrEqualTo(usages.get(i - 1).getUsage()));
+            }
+            assertEquals("burn-0", usages.get(0).getName());
+            float onePercent = CpuWatcher.getOneCoreOnePercent();
+            assertThat("Busy thread usage needs to be greater than 80%.", usages.get(0).getUsage() / onePercent, Matchers.greaterThan(80f));
+            assertThat("Idle threads usage needs to be less than 20%.", usages.get(1).getUsage() / onePercent, Matchers.lessThan(20f));
+        } finally {
+            load.destroy();
+            load.waitFor();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/** *****************************************************************************
+ * Copyright 2022 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************** */
+package dyorgio.runtime.cpu.watcher;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author dyorgio
+ */
+public class VictimProtectorTest {
+
+    @Test
+    public void testNextLevel() {
+        // above target, halved
+        assertEquals(0.5f, VictimProtector.nextLevel(1f, 200, 100), 0.0001f);
+        assertEquals(0.25f, VictimProtector.nextLevel(0.5f, 200, 100), 0.0001f);
+        // never below minimum
+        assertEquals(0.01f, VictimProtector.nextLevel(0.015f, 200, 100), 0.0001f);
+        // at or below target, additive recovery
+        assertEquals(0.3f, VictimProtector.nextLevel(0.25f, 100, 100), 0.0001f);
+        assertEquals(0.3f, VictimProtector.nextLevel(0.25f, 0, 100), 0.0001f);
+        // never above maximum
+        assertEquals(1f, VictimProtector.nextLevel(0.98f, 0, 100), 0.0001f);
+        assertEquals(1f, VictimProtector.nextLevel(1f, 0, 100), 0.0001f);
+    }
+
+    @Test
+    public void testAggressorApply() throws Throwable {
+        assumeTrue(!System.getProperty("os.name", "generic").toLowerCase().contains("win"));
+
+        Process target = new ProcessBuilder("sh", "-c", "echo $$; exec sleep 60").start();
+        try {
+            int pid = Integer.parseInt(new BufferedReader(new InputStreamReader(target.getInputStream(), StandardCharsets.US_ASCII)).readLine());
+            // not started, only limits are used
+            CpuWatcher watcher = new CpuWatcher(pid, null);
+
+            VictimProtector.Aggressor unlimited = new VictimProtector.Aggressor(watcher, null);
+            // null maximum means entire system
+            assertTrue(unlimited.apply(0.5f));
+            assertEquals(50f, watcher.getUsageLimit(), 0.0001f);
+            // unchanged limit, watcher baseline is kept
+            assertFalse(unlimited.apply(0.5f));
+            assertTrue(unlimited.apply(1f));
+            assertNull(watcher.getUsageLimit());
+            assertFalse(unlimited.apply(1f));
+
+            VictimProtector.Aggressor limited = new VictimProtector.Aggressor(watcher, 40f);
+            assertTrue(limited.apply(0.25f));
+            assertEquals(10f, watcher.getUsageLimit(), 0.0001f);
+            assertFalse(limited.apply(0.25f));
+            assertTrue(limited.apply(1f));
+            assertEquals(40f, watcher.getUsageLimit(), 0.0001f);
+            assertFalse(limited.apply(1f));
+        } finally {
+            target.destroy();
+            target.waitFor();
+        }
+    }
+}